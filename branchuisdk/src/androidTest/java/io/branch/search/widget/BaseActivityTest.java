@@ -1,6 +1,8 @@
 package io.branch.search.widget;
 
+import android.content.pm.PackageManager;
 import android.os.Bundle;
+import android.os.StrictMode;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.test.rule.ActivityTestRule;
@@ -24,6 +26,14 @@ public abstract class BaseActivityTest extends BaseTest {
                     ViewGroup.LayoutParams.MATCH_PARENT,
                     ViewGroup.LayoutParams.MATCH_PARENT));
         }
+
+        @Override
+        public PackageManager getPackageManager() {
+            // Fails tests whose thread policy detects custom slow calls, see StrictModeTest.
+            // A no-op otherwise.
+            StrictMode.noteSlowCall("getPackageManager");
+            return super.getPackageManager();
+        }
     }
 
     @Rule
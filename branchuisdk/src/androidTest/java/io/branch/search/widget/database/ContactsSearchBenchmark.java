@@ -0,0 +1,96 @@
+package io.branch.search.widget.database;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import io.branch.search.widget.BaseTest;
+import io.branch.search.widget.index.ContactsIndex;
+import io.branch.search.widget.model.Contact;
+import io.branch.search.widget.util.WordMatcher;
+
+/**
+ * Compares the two ways of searching contacts: the in-memory {@link ContactsIndex}
+ * and the {@link ContactsDao#search(String, int)} full-text index.
+ */
+public class ContactsSearchBenchmark extends BaseTest {
+    private static final String TAG = "Branch::ContactsBenchmark";
+
+    private static final int CONTACTS = 20000;
+    private static final int CAPACITY = 4;
+    private static final int RUNS = 20;
+    private static final String[] QUERIES = { "a", "jo", "mar", "smith", "ann lee", "zzz" };
+    private static final String[] FIRST_NAMES = { "John", "Mary", "Anna", "Marco", "Joseph",
+            "Lee", "Maria", "Jonathan", "Annie", "Mark", "Sam", "Ada" };
+    private static final String[] LAST_NAMES = { "Smith", "Lee", "Rossi", "Johnson", "Marley",
+            "Anderson", "Brown", "Smithson", "Adams", "Jones" };
+
+    private BranchDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDatabase = BranchDatabase.createInMemory(getTargetContext());
+        Random random = new Random(0);
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 0; i < CONTACTS; i++) {
+            Contact contact = new Contact(i, FIRST_NAMES[random.nextInt(FIRST_NAMES.length)]
+                    + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)] + " " + i);
+            contact.setInteractions(random.nextInt(10));
+            contacts.add(contact);
+        }
+        mDatabase.contactItemDao().update(contacts);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void testSearch() {
+        ContactsDao dao = mDatabase.contactItemDao();
+
+        long before = System.currentTimeMillis();
+        List<Contact> contacts = dao.getAll();
+        ContactsIndex index = new ContactsIndex(contacts, new WordMatcher());
+        long after = System.currentTimeMillis();
+        Log.w(TAG, "In-memory index of " + CONTACTS + " contacts took "
+                + (after - before) + " ms to load.");
+
+        for (String query : QUERIES) {
+            List<Contact> memory = null;
+            List<Contact> database = null;
+            before = System.nanoTime();
+            for (int i = 0; i < RUNS; i++) {
+                memory = index.getNames().findTokens(query, CAPACITY);
+            }
+            long memoryTime = (System.nanoTime() - before) / RUNS / 1000;
+            before = System.nanoTime();
+            for (int i = 0; i < RUNS; i++) {
+                //noinspection ConstantConditions
+                database = dao.search(ContactName.toMatchQuery(query), CAPACITY);
+            }
+            long databaseTime = (System.nanoTime() - before) / RUNS / 1000;
+            Log.w(TAG, "Search for '" + query + "' took " + memoryTime + " us in memory, "
+                    + databaseTime + " us in the database.");
+
+            // Same ranking, so we should have the same results.
+            Assert.assertEquals(ids(memory), ids(database));
+        }
+    }
+
+    private static List<Integer> ids(List<Contact> contacts) {
+        List<Integer> ids = new ArrayList<>();
+        for (Contact contact : contacts) {
+            ids.add(contact.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,181 @@
+package io.branch.search.widget.provider;
+
+import android.Manifest;
+import android.os.StrictMode;
+import android.support.annotation.Nullable;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.GrantPermissionRule;
+
+import com.facebook.drawee.backends.pipeline.Fresco;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.branch.search.widget.BaseControllerTest;
+import io.branch.search.widget.BranchSearchCallback;
+import io.branch.search.widget.BranchSearchController;
+import io.branch.search.widget.R;
+import io.branch.search.widget.model.App;
+import io.branch.search.widget.util.AppIconCache;
+
+/**
+ * Creates the controller, runs queries through all providers and launches a result with
+ * a StrictMode policy on the main thread, which kills the process on any disk access or slow
+ * call. Everything that touches PackageManager or the disk in the search path (icons, labels,
+ * shortcuts, databases) must happen on worker threads.
+ *
+ * StrictMode can't detect binder calls, so PackageManager IPC is reported as a slow call:
+ * by the SDK where it keeps a PackageManager, and by the test activity whenever
+ * {@link android.content.Context#getPackageManager()} is called on it.
+ */
+public class StrictModeTest extends BaseControllerTest {
+
+    private static final long TIMEOUT_MILLIS = 8000;
+
+    @Rule
+    public GrantPermissionRule mRuntimePermissionsRule =
+            GrantPermissionRule.grant(Manifest.permission.ACCESS_FINE_LOCATION,
+                    Manifest.permission.READ_EXTERNAL_STORAGE,
+                    Manifest.permission.READ_CONTACTS);
+
+    private StrictMode.ThreadPolicy mOldPolicy;
+    // Results of the last query, by provider.
+    private final Map<IDiscoveryProvider, List<Object>> mResults
+            = Collections.synchronizedMap(new HashMap<IDiscoveryProvider, List<Object>>());
+
+    @After
+    public void restorePolicy() {
+        // Runs before the controller teardown, which is not part of the search path.
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                if (mOldPolicy != null) StrictMode.setThreadPolicy(mOldPolicy);
+            }
+        });
+    }
+
+    @Test
+    public void testSearchPath() throws Throwable {
+        final BranchSearchController[] controller = new BranchSearchController[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // Host apps initialize Fresco themselves, it's not part of the search path.
+                if (!Fresco.hasBeenInitialized()) Fresco.initialize(getTargetContext());
+                mOldPolicy = StrictMode.getThreadPolicy();
+                StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                        .detectDiskReads()
+                        .detectDiskWrites()
+                        .detectCustomSlowCalls()
+                        .penaltyLog()
+                        .penaltyDeath()
+                        .build());
+                controller[0] = createController(null, null);
+            }
+        });
+        // Empty query (suggestions), then a typed query with a typo, then one that
+        // matches apps, shortcuts and contacts, whose icons are not in memory.
+        Assert.assertTrue(search(controller[0], "", false));
+        Assert.assertTrue(search(controller[0], "setings", false));
+        Assert.assertTrue(search(controller[0], "se", true));
+
+        final App app = findResult(App.class);
+        Assert.assertNotNull(app);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                getProvider(App.class).onItemClick(app, null, 0);
+            }
+        });
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+    }
+
+    @Nullable
+    private <T> T findResult(@NonNull Class<T> type) {
+        synchronized (mResults) {
+            for (List<Object> results : mResults.values()) {
+                for (Object result : results) {
+                    if (type.isInstance(result)) return type.cast(result);
+                }
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @NonNull
+    private <T> DiscoveryProvider<T, ?> getProvider(@NonNull Class<T> type) {
+        synchronized (mResults) {
+            for (Map.Entry<IDiscoveryProvider, List<Object>> entry : mResults.entrySet()) {
+                if (!entry.getValue().isEmpty() && type.isInstance(entry.getValue().get(0))) {
+                    return (DiscoveryProvider<T, ?>) entry.getKey();
+                }
+            }
+        }
+        throw new AssertionError("No provider of " + type.getSimpleName());
+    }
+
+    /**
+     * Types the query on the main thread, waits for all providers to answer,
+     * then waits for the results to be bound. If coldIcons is true, app icons are dropped
+     * from memory when results arrive, before they are bound.
+     */
+    private boolean search(@NonNull final BranchSearchController controller,
+                           @NonNull final String text,
+                           final boolean coldIcons) throws InterruptedException {
+        String[] allProviders = getTargetContext()
+                .getResources()
+                .getStringArray(R.array.IDiscoveryProvider);
+        final CountDownLatch latch = new CountDownLatch(allProviders.length);
+        mResults.clear();
+        final Set<IDiscoveryProvider> providers
+                = Collections.synchronizedSet(new HashSet<IDiscoveryProvider>());
+        final BranchSearchCallback callback = new BranchSearchCallback() {
+            @Override
+            public void onQueryUpdateRequested(@NonNull CharSequence newQuery) { }
+
+            @Override
+            public void onProviderResults(@NonNull IDiscoveryProvider provider,
+                                          @NonNull String query,
+                                          @NonNull List<Object> results) {
+                if (query.equalsIgnoreCase(text) && providers.add(provider)) {
+                    if (coldIcons) AppIconCache.getInstance(getTargetContext()).evictAll();
+                    mResults.put(provider, results);
+                    latch.countDown();
+                }
+            }
+
+            @Override
+            public void onProviderError(@NonNull IDiscoveryProvider provider,
+                                        @NonNull String query,
+                                        @NonNull Exception error) {
+                if (query.equalsIgnoreCase(text) && providers.add(provider)) {
+                    latch.countDown();
+                }
+            }
+        };
+        controller.addCallback(callback);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                controller.onTextChanged(text);
+            }
+        });
+        boolean result = latch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        controller.removeCallback(callback);
+        return result;
+    }
+}
@@ -1,27 +1,90 @@
 package io.branch.search.widget.database;
 
+import android.support.annotation.NonNull;
+
 import androidx.room.Dao;
 import androidx.room.Delete;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.Transaction;
 
 import java.util.List;
+import java.util.Map;
 
 import io.branch.search.widget.model.App;
 
 @Dao
-public interface AppsDao {
+public abstract class AppsDao {
 
     @Query("SELECT * FROM apps ORDER BY interactions DESC, popularity DESC, label ASC")
-    List<App> getAll();
+    public abstract List<App> getAll();
+
+    @Query("SELECT interactions FROM apps WHERE id = :id")
+    public abstract Integer getInteractions(int id);
 
     @Query("SELECT COUNT(*) FROM apps")
-    int getCount();
+    public abstract int getCount();
 
     @Insert(onConflict = OnConflictStrategy.REPLACE)
-    void update(App item);
+    public abstract void update(App item);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    public abstract void update(List<App> items);
+
+    @Query("UPDATE apps SET interactions = interactions + :delta WHERE id = :id")
+    public abstract void addInteractions(int id, int delta);
+
+    /**
+     * Adds the given interactions in a single transaction. Rows that don't exist
+     * are left alone, and other columns are not touched.
+     *
+     * @param deltas the number of new interactions, by id
+     */
+    @Transaction
+    public void addInteractions(@NonNull Map<Integer, Integer> deltas) {
+        for (Map.Entry<Integer, Integer> entry : deltas.entrySet()) {
+            addInteractions(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Delete
+    public abstract void delete(App item);
 
     @Delete
-    void delete(App item);
+    public abstract void delete(List<App> items);
+
+    /**
+     * Applies the result of a sync in a single transaction.
+     *
+     * @param added apps to insert
+     * @param removed apps to delete
+     * @param changed apps to replace
+     */
+    @Transaction
+    public void replaceAll(@NonNull List<App> added,
+                           @NonNull List<App> removed,
+                           @NonNull List<App> changed) {
+        delete(removed);
+        update(added);
+        update(changed);
+    }
+
+    /**
+     * Applies an update of some packages in a single transaction. Unlike
+     * {@link #replaceAll(List, List, List)}, changed apps that are in the database keep
+     * the interactions stored there, which might include some that the caller has not seen.
+     *
+     * @param removed apps to delete
+     * @param changed apps to insert or replace
+     */
+    @Transaction
+    public void replaceKeepingInteractions(@NonNull List<App> removed,
+                                           @NonNull List<App> changed) {
+        delete(removed);
+        for (App app : changed) {
+            Integer interactions = getInteractions(app.getId());
+            update(interactions == null ? app : app.withInteractions(interactions));
+        }
+    }
 }
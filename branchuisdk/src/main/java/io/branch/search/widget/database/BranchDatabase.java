@@ -1,18 +1,76 @@
 package io.branch.search.widget.database;
 
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
 import androidx.room.Database;
+import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
 import io.branch.search.widget.model.App;
 import io.branch.search.widget.model.Contact;
 
 @Database(
-        entities = {App.class, Contact.class},
+        entities = {App.class, Contact.class, ContactName.class, MediaFile.class},
         exportSchema = false,
-        version = 4)
+        version = 6)
 public abstract class BranchDatabase extends RoomDatabase {
 
+    private final static Callback CALLBACK = new Callback() {
+        @Override
+        public void onOpen(@NonNull SupportSQLiteDatabase db) {
+            super.onOpen(db);
+            // Contacts are written with REPLACE, which only fires the delete
+            // triggers that keep ContactNames in sync if recursive triggers are on.
+            db.execSQL("PRAGMA recursive_triggers = ON");
+        }
+    };
+
+    private final static Object sLock = new Object();
+    private static BranchDatabase sDatabase = null;
+
+    /**
+     * Returns the shared database instance.
+     *
+     * @param context a context
+     * @return the database
+     */
+    @NonNull
+    public static BranchDatabase getInstance(@NonNull Context context) {
+        if (sDatabase == null) {
+            synchronized (sLock) {
+                if (sDatabase == null) {
+                    sDatabase = Room.databaseBuilder(context.getApplicationContext(),
+                            BranchDatabase.class, "branchDatabase")
+                            .fallbackToDestructiveMigration()
+                            .addCallback(CALLBACK)
+                            .build();
+                }
+            }
+        }
+        return sDatabase;
+    }
+
+    /**
+     * Creates a database that lives in memory, for tests.
+     *
+     * @param context a context
+     * @return a new database
+     */
+    @VisibleForTesting
+    @NonNull
+    static BranchDatabase createInMemory(@NonNull Context context) {
+        return Room.inMemoryDatabaseBuilder(context.getApplicationContext(),
+                BranchDatabase.class)
+                .addCallback(CALLBACK)
+                .build();
+    }
+
     public abstract AppsDao appItemDao();
 
     public abstract ContactsDao contactItemDao();
+
+    public abstract MediaFilesDao mediaFilesDao();
 }
@@ -0,0 +1,82 @@
+package io.branch.search.widget.database;
+
+import android.support.annotation.Keep;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+import androidx.room.FtsOptions;
+import androidx.room.PrimaryKey;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.branch.search.widget.model.Contact;
+
+/**
+ * The full-text index of the contact names. This is an external content table: names
+ * are only stored in the Contacts table, and Room keeps the index in sync with triggers.
+ * The row id is the contact id. See {@link ContactsDao#search(String, int)}.
+ */
+@Fts4(contentEntity = Contact.class,
+        tokenizer = FtsOptions.TOKENIZER_UNICODE61,
+        prefix = {2, 3})
+@Entity(tableName = "ContactNames")
+@Keep
+public class ContactName {
+
+    @PrimaryKey
+    @ColumnInfo(name = "rowid")
+    private final int mId;
+
+    @ColumnInfo(name = "displayName")
+    @NonNull
+    private final String mFullName;
+
+    public ContactName(int id, @NonNull String fullName) {
+        mId = id;
+        mFullName = fullName;
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    @NonNull
+    public String getFullName() {
+        return mFullName;
+    }
+
+    /**
+     * Returns a MATCH expression for the given user query, or null if the query has no words.
+     * Every word must be the prefix of a word of the name, in any order, so that
+     * "smith jo" finds "John Smith".
+     *
+     * @param query the query
+     * @return the match expression or null
+     */
+    @Nullable
+    public static String toMatchQuery(@NonNull String query) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= query.length(); i++) {
+            char character = i < query.length() ? query.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(character)) {
+                word.append(character);
+            } else if (word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (words.isEmpty()) return null;
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < words.size(); i++) {
+            if (i > 0) builder.append(' ');
+            // Quoting makes sure that words like OR or NEAR are not read as operators.
+            builder.append('"').append(words.get(i)).append("*\"");
+        }
+        return builder.toString();
+    }
+}
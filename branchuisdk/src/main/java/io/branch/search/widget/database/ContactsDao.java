@@ -1,28 +1,87 @@
 package io.branch.search.widget.database;
 
+import android.support.annotation.NonNull;
+
 import androidx.room.Dao;
 import androidx.room.Delete;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.Transaction;
 
 import java.util.List;
+import java.util.Map;
 
 import io.branch.search.widget.model.Contact;
 
 @Dao
-public interface ContactsDao {
+public abstract class ContactsDao {
 
     @Query("SELECT * FROM contacts ORDER BY interactions DESC, displayName ASC")
-    List<Contact> getAll();
+    public abstract List<Contact> getAll();
+
+    /**
+     * Returns the contacts whose name matches the given expression, see
+     * {@link ContactName#toMatchQuery(String)}, with the same ranking as {@link #getAll()}.
+     * This does not need to load all contacts in memory.
+     */
+    @Query("SELECT Contacts.* FROM Contacts"
+            + " JOIN ContactNames ON Contacts.id = ContactNames.rowid"
+            + " WHERE ContactNames MATCH :match"
+            + " ORDER BY Contacts.interactions DESC, Contacts.displayName ASC"
+            + " LIMIT :limit")
+    public abstract List<Contact> search(String match, int limit);
+
+    @Query("SELECT * FROM contacts WHERE id = :id")
+    public abstract Contact get(int id);
 
     @Query("SELECT COUNT(*) FROM contacts")
-    int getCount();
+    public abstract int getCount();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    public abstract void update(Contact item);
 
     @Insert(onConflict = OnConflictStrategy.REPLACE)
-    void update(Contact item);
+    public abstract void update(List<Contact> items);
+
+    @Query("UPDATE contacts SET interactions = interactions + :delta WHERE id = :id")
+    public abstract void addInteractions(int id, int delta);
+
+    /**
+     * Adds the given interactions in a single transaction. Rows that don't exist
+     * are left alone, and other columns are not touched.
+     *
+     * @param deltas the number of new interactions, by id
+     */
+    @Transaction
+    public void addInteractions(@NonNull Map<Integer, Integer> deltas) {
+        for (Map.Entry<Integer, Integer> entry : deltas.entrySet()) {
+            addInteractions(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Delete
+    public abstract void delete(Contact item);
 
+    /**
+     * Deletes the given contacts. Only the id is needed.
+     */
     @Delete
-    void delete(Contact item);
+    public abstract void delete(List<Contact> items);
 
+    /**
+     * Applies the result of a sync in a single transaction.
+     *
+     * @param added contacts to insert
+     * @param removed contacts to delete
+     * @param changed contacts to replace
+     */
+    @Transaction
+    public void replaceAll(@NonNull List<Contact> added,
+                           @NonNull List<Contact> removed,
+                           @NonNull List<Contact> changed) {
+        delete(removed);
+        update(added);
+        update(changed);
+    }
 }
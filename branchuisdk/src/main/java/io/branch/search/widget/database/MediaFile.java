@@ -0,0 +1,162 @@
+package io.branch.search.widget.database;
+
+import android.support.annotation.Keep;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+import androidx.room.FtsOptions;
+import androidx.room.PrimaryKey;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A row of the full-text index of MediaStore files. The row id is the MediaStore id.
+ *
+ * Only the {@link #getWords()} column is indexed. It holds the file name split in words
+ * (see {@link #toWords(String)}), so that "myHolidayPhoto2.jpg" can be found by "holiday",
+ * "photo" or "2". The other columns are stored to build results without querying MediaStore.
+ */
+@Fts4(tokenizer = FtsOptions.TOKENIZER_UNICODE61,
+        prefix = {2, 3},
+        notIndexed = {"path", "title", "mediaType", "bucket", "dateModified"})
+@Entity(tableName = "MediaFiles")
+@Keep
+public class MediaFile {
+
+    @PrimaryKey
+    @ColumnInfo(name = "rowid")
+    private final long mId;
+
+    @ColumnInfo(name = "words")
+    @NonNull
+    private final String mWords;
+
+    @ColumnInfo(name = "path")
+    @NonNull
+    private final String mPath;
+
+    @ColumnInfo(name = "title")
+    @Nullable
+    private final String mTitle;
+
+    @ColumnInfo(name = "mediaType")
+    private final int mMediaType;
+
+    @ColumnInfo(name = "bucket")
+    private final int mBucket;
+
+    @ColumnInfo(name = "dateModified")
+    private final long mDateModified;
+
+    public MediaFile(long id,
+                     @NonNull String words,
+                     @NonNull String path,
+                     @Nullable String title,
+                     int mediaType,
+                     int bucket,
+                     long dateModified) {
+        mId = id;
+        mWords = words;
+        mPath = path;
+        mTitle = title;
+        mMediaType = mediaType;
+        mBucket = bucket;
+        mDateModified = dateModified;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    @NonNull
+    public String getWords() {
+        return mWords;
+    }
+
+    @NonNull
+    public String getPath() {
+        return mPath;
+    }
+
+    @Nullable
+    public String getTitle() {
+        return mTitle;
+    }
+
+    /**
+     * Returns one of the {@link io.branch.search.widget.model.Media} types.
+     */
+    public int getMediaType() {
+        return mMediaType;
+    }
+
+    /**
+     * Returns the index of the public directory that contains this file.
+     */
+    public int getBucket() {
+        return mBucket;
+    }
+
+    /**
+     * Returns the MediaStore modification date, in seconds.
+     */
+    public long getDateModified() {
+        return mDateModified;
+    }
+
+    /**
+     * Splits the given name in words separated by spaces. On top of the separators
+     * of the FTS tokenizer, words are split where case changes from lower to upper
+     * and between letters and digits. For example, "IMG_2020.jpg" becomes "IMG 2020 jpg".
+     *
+     * @param name a file name
+     * @return the words
+     */
+    @NonNull
+    public static String toWords(@NonNull String name) {
+        StringBuilder builder = new StringBuilder(name.length() + 8);
+        char previous = ' ';
+        for (int i = 0; i < name.length(); i++) {
+            char current = name.charAt(i);
+            if (!Character.isLetterOrDigit(current)) {
+                current = ' ';
+            } else if ((Character.isLowerCase(previous) && Character.isUpperCase(current))
+                    || (Character.isLetter(previous) && Character.isDigit(current))
+                    || (Character.isDigit(previous) && Character.isLetter(current))) {
+                builder.append(' ');
+            }
+            if (current != ' ' || previous != ' ') {
+                builder.append(current);
+            }
+            previous = current;
+        }
+        return builder.toString().trim();
+    }
+
+    /**
+     * Returns a MATCH expression for the given user query, or null if the query has no words.
+     * The words must be found in sequence, and the last one can be a prefix, so that
+     * "holiday pho" finds "myHolidayPhoto2.jpg".
+     *
+     * @param query the query
+     * @return the match expression or null
+     */
+    @Nullable
+    public static String toMatchQuery(@NonNull String query) {
+        List<String> words = new ArrayList<>();
+        for (String word : toWords(query).split(" ")) {
+            if (!word.isEmpty()) words.add(word);
+        }
+        if (words.isEmpty()) return null;
+        StringBuilder builder = new StringBuilder("\"");
+        for (int i = 0; i < words.size(); i++) {
+            if (i > 0) builder.append(' ');
+            builder.append(words.get(i));
+        }
+        return builder.append("*\"").toString();
+    }
+}
@@ -0,0 +1,34 @@
+package io.branch.search.widget.database;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface MediaFilesDao {
+
+    /**
+     * Returns the files matching the given expression,
+     * see {@link MediaFile#toMatchQuery(String)}.
+     */
+    @Query("SELECT rowid, * FROM MediaFiles WHERE words MATCH :match LIMIT :limit")
+    List<MediaFile> search(String match, int limit);
+
+    @Query("SELECT rowid FROM MediaFiles")
+    List<Long> getIds();
+
+    @Query("SELECT MAX(rowid) FROM MediaFiles")
+    long getMaxId();
+
+    @Query("SELECT MAX(dateModified) FROM MediaFiles")
+    long getMaxDateModified();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void update(List<MediaFile> items);
+
+    @Query("DELETE FROM MediaFiles WHERE rowid IN (:ids)")
+    void delete(List<Long> ids);
+}
@@ -1,31 +1,39 @@
 package io.branch.search.widget.generator;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
-import android.os.AsyncTask;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
-import com.google.android.gms.tasks.Task;
-import com.google.android.gms.tasks.Tasks;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 import io.branch.search.widget.database.AppsDao;
+import io.branch.search.widget.database.BranchDatabase;
+import io.branch.search.widget.index.SearchIndex;
+import io.branch.search.widget.index.WordIndex;
 import io.branch.search.widget.model.App;
 import io.branch.search.widget.util.DeviceAppsManager;
+import io.branch.search.widget.util.PackageRegistry;
+import io.branch.search.widget.util.TopAppsTable;
 import io.branch.search.widget.util.Utility;
 
 /**
@@ -36,8 +44,101 @@ public class AppsGenerator extends DatabaseGenerator<App> {
 
     private final static String LOCALE_KEY = "LOCALE";
 
-    private final static List<App> sApps
-            = Collections.synchronizedList(new ArrayList<App>());
+    private final static int LABEL_THREADS
+            = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Same order as {@link AppsDao#getAll()}.
+     */
+    private final static Comparator<App> ORDER = new Comparator<App>() {
+        @Override
+        public int compare(App first, App second) {
+            if (first.getInteractions() != second.getInteractions()) {
+                return first.getInteractions() > second.getInteractions() ? -1 : 1;
+            }
+            if (first.getPopularity() != second.getPopularity()) {
+                return first.getPopularity() > second.getPopularity() ? -1 : 1;
+            }
+            return first.getLabel().compareTo(second.getLabel());
+        }
+    };
+
+    private final static AtomicReference<AppsSnapshot> sSnapshot = new AtomicReference<>(
+            new AppsSnapshot(Collections.<App>emptyList(),
+                    SearchIndex.createAppsIndex(Collections.<App>emptyList()), 0));
+    private static TopAppsTable sTopApps;
+    private final static InteractionsBuffer<App> sInteractions = new InteractionsBuffer<App>() {
+        @Override
+        protected void write(@NonNull Context context,
+                             @NonNull Map<Integer, Integer> deltas) {
+            BranchDatabase.getInstance(context).appItemDao().addInteractions(deltas);
+        }
+    };
+    // Packages that changed but were not applied to our snapshot yet. Guarded by the class lock.
+    private final static Set<String> sChangedPackages = new HashSet<>();
+    // Whether packages or the locale might have changed since we last checked.
+    // True at first, since we are not told about changes while we are not running.
+    private static volatile boolean sDirty = true;
+
+    /**
+     * A snapshot of the apps, with their search index.
+     */
+    private static class AppsSnapshot extends Snapshot<App> {
+        @NonNull private final WordIndex<App> mIndex;
+
+        private AppsSnapshot(@NonNull List<App> apps, @NonNull WordIndex<App> index,
+                             int version) {
+            super(apps, version);
+            mIndex = index;
+        }
+    }
+
+    private Context mReceiverContext = null;
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // The manifest receiver, if it gets this too, might run after our refresh.
+            DeviceAppsManager.recordChange(context, intent);
+            ReindexScheduler.onPackagesChanged(context);
+        }
+    };
+
+    /**
+     * Listens to package and locale changes while we're alive, so that apps are refreshed
+     * before the next query. On API 26+, package broadcasts are not delivered to the
+     * manifest receiver anymore, and on older APIs it only records them.
+     * @param context a context
+     */
+    private void maybeRegisterReceiver(@NonNull Context context) {
+        if (mReceiverContext == null) {
+            // We might have missed changes while no receiver was registered.
+            sDirty = true;
+            mReceiverContext = context.getApplicationContext();
+            IntentFilter packages = new IntentFilter();
+            packages.addAction(Intent.ACTION_PACKAGE_ADDED);
+            packages.addAction(Intent.ACTION_PACKAGE_REMOVED);
+            packages.addAction(Intent.ACTION_PACKAGE_REPLACED);
+            packages.addDataScheme("package");
+            mReceiverContext.registerReceiver(mReceiver, packages);
+            mReceiverContext.registerReceiver(mReceiver,
+                    new IntentFilter(Intent.ACTION_LOCALE_CHANGED));
+        }
+    }
+
+    /**
+     * Marks the apps as possibly changed, so that the next refresh checks for changes.
+     * Checking is IPC, so refreshes that were not asked for by a change don't do it.
+     */
+    static void setDirty() {
+        sDirty = true;
+    }
+
+    private void maybeUnregisterReceiver() {
+        if (mReceiverContext != null) {
+            mReceiverContext.unregisterReceiver(mReceiver);
+            mReceiverContext = null;
+        }
+    }
 
     @NonNull
     private AppsDao getDao(@NonNull Context context) {
@@ -67,115 +168,344 @@ public class AppsGenerator extends DatabaseGenerator<App> {
         }
     }
 
+    /**
+     * Only checks for changes, without applying them. Packages that changed, when they can be
+     * updated one by one, are collected for {@link #syncSnapshot(Context)}.
+     * Should be called with the class lock held.
+     * @param context a context
+     * @return true if all apps must be generated again
+     */
     @Override
     protected boolean needsGeneration(@NonNull Context context) {
-        if (DeviceAppsManager.isDirty(context)) return true;
+        Set<String> changedPackages = DeviceAppsManager.getChangedPackages(context);
+        if (changedPackages == null) return true;
         if (isLocaleDirty(context)) return true;
-        if (sApps.isEmpty()) {
-            sApps.addAll(getDao(context).getAll());
+        sChangedPackages.addAll(changedPackages);
+        return false;
+    }
+
+    /**
+     * Brings our snapshot up to date with the device: loads it from the DAO if it's empty,
+     * then updates the changed packages, or generates all apps again if needed.
+     * Should be called with the class lock held.
+     * @param context a context
+     */
+    private void syncSnapshot(final @NonNull Context context) {
+        if (!needsGeneration(context)) {
+            if (sSnapshot.get().getItems().isEmpty()) {
+                try {
+                    setApps(sInteractions.flushAndRead(context, new Callable<List<App>>() {
+                        @Override
+                        public List<App> call() {
+                            return getDao(context).getAll();
+                        }
+                    }));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            if (!sSnapshot.get().getItems().isEmpty()) {
+                if (!sChangedPackages.isEmpty()) {
+                    try {
+                        updatePackages(context, sChangedPackages);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    sChangedPackages.clear();
+                }
+                return;
+            }
+        }
+        // Includes the changed packages.
+        sChangedPackages.clear();
+        setApps(generate(context));
+    }
+
+    /**
+     * Reloads, inserts or deletes the apps of the given packages, both in the DAO and
+     * in our static list, without touching other apps.
+     * Interactions are not copied between the two: the DAO keeps its own, which include
+     * the buffered ones once flushed, and our list keeps its own, to which the pending
+     * ones are applied after this.
+     * @param context a context
+     * @param packageNames the changed packages
+     */
+    private void updatePackages(@NonNull Context context,
+                                @NonNull Set<String> packageNames) throws Exception {
+        AppsDao dao = getDao(context);
+        PackageManager manager = context.getPackageManager();
+        TopAppsTable popularity = getTopApps(context);
+        List<App> apps = new ArrayList<>(sSnapshot.get().getItems());
+        List<App> removed = new ArrayList<>();
+        List<App> changed = new ArrayList<>();
+        for (String packageName : packageNames) {
+            // Apps are equal if they have the same package.
+            App oldApp = null;
+            int index = apps.indexOf(new App(packageName, ""));
+            if (index >= 0) oldApp = apps.remove(index);
+
+            Intent intent = new Intent(Intent.ACTION_MAIN, null);
+            intent.addCategory(Intent.CATEGORY_LAUNCHER);
+            intent.setPackage(packageName);
+            List<ResolveInfo> infos = manager.queryIntentActivities(intent, 0);
+            if (infos.isEmpty() || context.getPackageName().equals(packageName)) {
+                // Removed, or no launcher activity anymore.
+                if (oldApp != null) removed.add(oldApp);
+            } else {
+                App app = new App(packageName, infos.get(0).loadLabel(manager).toString());
+                app.setPopularity(popularity.getPopularity(packageName));
+                if (oldApp != null) app.setInteractions(oldApp.getInteractions());
+                changed.add(app);
+                apps.add(app);
+            }
+        }
+        dao.replaceKeepingInteractions(removed, changed);
+        Collections.sort(apps, ORDER);
+        setApps(apps);
+    }
+
+    @NonNull
+    @Override
+    public Snapshot<App> getSnapshot(@NonNull Context context) {
+        return getAppsSnapshot(context);
+    }
+
+    /**
+     * Same as {@link #get(Context)}, but returns the search index of the list,
+     * which is rebuilt every time the list changes.
+     * Should be called from background threads.
+     *
+     * @param context a context
+     * @return the apps index
+     */
+    @NonNull
+    public WordIndex<App> getIndex(@NonNull Context context) {
+        return getAppsSnapshot(context).mIndex;
+    }
+
+    @NonNull
+    private AppsSnapshot getAppsSnapshot(@NonNull Context context) {
+        maybeRegisterReceiver(context);
+        AppsSnapshot snapshot = sSnapshot.get();
+        if (snapshot.getItems().isEmpty()) {
+            // Nothing to show yet, so we must wait.
+            return refreshSnapshot(context);
         }
-        return sApps.isEmpty();
+        // Serve the current apps, but check for changes in the background if something
+        // might have changed. Otherwise the receiver will tell us.
+        if (sDirty) ReindexScheduler.refresh(context, this);
+        return snapshot;
     }
 
     @NonNull
     @Override
     public List<App> get(@NonNull Context context) {
+        return getSnapshot(context).getItems();
+    }
+
+    @Override
+    public void refresh(@NonNull Context context) {
+        refreshSnapshot(context);
+    }
+
+    /**
+     * Generates the apps if needed, and returns the latest snapshot.
+     * @param context a context
+     * @return the snapshot
+     */
+    @NonNull
+    private AppsSnapshot refreshSnapshot(@NonNull Context context) {
+        // Load the registry here, off the main thread, since add() needs it.
+        PackageRegistry.getInstance(context);
         // Synchronize on our class. Other instances of the same class might be doing the
         // same generation path, but we don't want to generate twice.
         // We could wrap this into a needsGeneration(), but DeviceAppsManager will not tell us
         // that apps are dirty twice, so this is much safer though a bit slower.
         synchronized (AppsGenerator.class) {
-            if (needsGeneration(context)) {
-                sApps.clear();
-                sApps.addAll(generate(context));
+            // Cleared before checking, so that changes notified meanwhile are checked again.
+            boolean dirty = sDirty || sSnapshot.get().getItems().isEmpty();
+            sDirty = false;
+            try {
+                if (dirty) syncSnapshot(context);
+            } catch (RuntimeException e) {
+                sDirty = true;
+                throw e;
+            }
+            // Interactions that the sync read from the DAO are not taken again here.
+            // If we have no apps yet, keep them for later.
+            if (!sSnapshot.get().getItems().isEmpty()) {
+                Map<Integer, Integer> interactions = sInteractions.takeUnapplied();
+                if (!interactions.isEmpty()) {
+                    setApps(withInteractions(sSnapshot.get().getItems(), interactions));
+                }
             }
         }
-        // Return a copy just to be safer.
-        return new ArrayList<>(sApps);
+        return sSnapshot.get();
+    }
+
+    /**
+     * Returns a sorted copy of the given apps, with the given new interactions.
+     * Apps are copied rather than changed, since they might be read by other threads.
+     * @param apps the apps
+     * @param interactions new interactions, by id
+     * @return new apps
+     */
+    @NonNull
+    private static List<App> withInteractions(@NonNull List<App> apps,
+                                              @NonNull Map<Integer, Integer> interactions) {
+        List<App> sorted = new ArrayList<>(apps.size());
+        for (App app : apps) {
+            Integer delta = interactions.get(app.getId());
+            sorted.add(delta == null ? app : app.withInteractions(app.getInteractions() + delta));
+        }
+        Collections.sort(sorted, ORDER);
+        return sorted;
+    }
+
+    @Override
+    public int getVersion() {
+        return sSnapshot.get().getVersion();
+    }
+
+    /**
+     * Publishes a new snapshot with the given apps, changing the version.
+     * The index is built here, before publishing, so that it is ready
+     * by the time providers need it.
+     * @param apps new apps
+     */
+    private static void setApps(@NonNull List<App> apps) {
+        WordIndex<App> index = SearchIndex.createAppsIndex(apps);
+        AppsSnapshot current;
+        do {
+            current = sSnapshot.get();
+        } while (!sSnapshot.compareAndSet(current,
+                new AppsSnapshot(apps, index, current.getVersion() + 1)));
     }
 
     @Override
     public void add(final @NonNull Context context, final @NonNull App item) {
         if (!DeviceAppsManager.isPackageInstalled(context,
                 item.getPackageName())) return;
-        // Increase interactions and save. Also we must clear sApps so it will be
-        // updated at the next get() call. This is not very expensive.
-        item.setInteractions(item.getInteractions() + 1);
-        Tasks.call(AsyncTask.THREAD_POOL_EXECUTOR, new Callable<Void>() {
+        // The DAO and our snapshot are updated later by the buffer.
+        sInteractions.add(context, item);
+        // Not in our snapshot, nothing to sort.
+        if (!sSnapshot.get().getItems().contains(item)) return;
+        // Our snapshot is sorted and indexed again on the reindex thread, so that many clicks
+        // cost a single pass. It will be updated at the next get() call after that.
+        ReindexScheduler.refresh(context, this);
+    }
+
+    @Override
+    public void flush() {
+        sInteractions.flush();
+    }
+
+    @NonNull
+    @Override
+    protected List<App> onGenerate(final @NonNull Context context) throws Exception {
+        final List<App> deviceApps = getDeviceApps(context);
+        // Make sure the DAO has all interactions, and that none is written while we merge,
+        // since changed apps are written with the interactions we read.
+        return sInteractions.flushAndRead(context, new Callable<List<App>>() {
             @Override
-            public Void call() {
-                getDao(context).update(item);
-                sApps.clear();
-                sApps.addAll(getDao(context).getAll());
-                return null;
+            public List<App> call() {
+                return merge(getDao(context), deviceApps);
             }
         });
     }
 
+    /**
+     * Syncs the device apps with the DAO, in a single transaction.
+     *
+     * @return the apps, sorted like the DAO query does
+     */
     @NonNull
-    @Override
-    protected List<App> onGenerate(@NonNull Context context) throws Exception {
-        // We must sync the device apps and the dao apps.
-        List<App> deviceApps = getDeviceApps(context);
-        List<App> daoApps = getDao(context).getAll();
-
-        // Remove from DAO any app that's not in the device anymore.
-        for (App daoApp : daoApps) {
-            if (!deviceApps.contains(daoApp)) {
-                getDao(context).delete(daoApp);
-            }
+    private static List<App> merge(@NonNull AppsDao dao, @NonNull List<App> deviceApps) {
+        // We must sync the device apps and the dao apps, which are indexed by id.
+        Map<Integer, App> daoApps = new HashMap<>();
+        for (App daoApp : dao.getAll()) {
+            daoApps.put(daoApp.getId(), daoApp);
         }
-        daoApps = getDao(context).getAll();
 
-        // Add to DAO any app that's not in dao but is in device.
+        // Add to DAO any app that's not in dao but is in device, plus check
+        // for changes (for example, the label changes with the locale).
+        List<App> apps = new ArrayList<>();
+        List<App> added = new ArrayList<>();
+        List<App> changed = new ArrayList<>();
+        Set<Integer> deviceIds = new HashSet<>();
         for (App deviceApp : deviceApps) {
-            if (!daoApps.contains(deviceApp)) {
-                getDao(context).update(deviceApp);
+            // Apps with more than one launcher activity are only added once.
+            if (!deviceIds.add(deviceApp.getId())) continue;
+            App daoApp = daoApps.remove(deviceApp.getId());
+            if (daoApp == null) {
+                added.add(deviceApp);
+                apps.add(deviceApp);
+            } else if (!daoApp.getLabel().equals(deviceApp.getLabel())
+                    || daoApp.getPopularity() != deviceApp.getPopularity()) {
+                deviceApp.setInteractions(daoApp.getInteractions());
+                changed.add(deviceApp);
+                apps.add(deviceApp);
+            } else {
+                apps.add(daoApp);
             }
         }
-        daoApps = getDao(context).getAll();
 
-        // Return. Apps will be sorted based on DAO query.
-        return daoApps;
+        // Remove from DAO any app that's not in the device anymore.
+        // All writes happen in a single transaction.
+        dao.replaceAll(added, new ArrayList<>(daoApps.values()), changed);
+
+        // Return. Apps are sorted like the DAO query does.
+        Collections.sort(apps, ORDER);
+        return apps;
     }
 
     @NonNull
-    private List<App> getDeviceApps(@NonNull Context context) throws IOException,
-            JSONException {
-        // Read the top apps JSON
-        InputStream is = context.getAssets().open("branch_topapps.json");
-        int size = is.available();
-        byte[] buffer = new byte[size];
-        //noinspection ResultOfMethodCallIgnored
-        is.read(buffer);
-        is.close();
-        String topAppsString = new String(buffer, StandardCharsets.UTF_8);
-        JSONArray topAppsArray = new JSONArray(topAppsString);
-
-        // Create a list of app items from the device
-        ArrayList<App> deviceAppItems = new ArrayList<>();
-        List<ResolveInfo> apps = DeviceAppsManager.getInstalledApps(context);
-        for (ResolveInfo app : apps) {
-            String packageName = app.activityInfo.applicationInfo.packageName;
-            String label = app.loadLabel(context.getPackageManager()).toString();
-            deviceAppItems.add(new App(packageName, label));
-        }
-
-        // Merge them with the JSON results popularity.
-        for (int i = 0; i < topAppsArray.length(); i++) {
-            JSONObject jsonAppItem = topAppsArray.getJSONObject(i);
-            String packageName = jsonAppItem.getString("package_name");
-            App item = new App(packageName, "");
-            if (deviceAppItems.contains(item)) {
-                App appItem = deviceAppItems.get(deviceAppItems.indexOf(item));
-                appItem.setPopularity(jsonAppItem.getInt("popularity"));
+    private List<App> getDeviceApps(@NonNull Context context) throws Exception {
+        // Create a list of app items from the device. Loading a label is an IPC plus
+        // a resources load, so we do it on a few threads.
+        final PackageManager manager = context.getPackageManager();
+        List<ResolveInfo> infos = DeviceAppsManager.getInstalledApps(context);
+        List<Future<App>> futures = new ArrayList<>(infos.size());
+        ExecutorService executor = Executors.newFixedThreadPool(LABEL_THREADS);
+        try {
+            for (final ResolveInfo info : infos) {
+                futures.add(executor.submit(new Callable<App>() {
+                    @Override
+                    public App call() {
+                        String packageName = info.activityInfo.applicationInfo.packageName;
+                        String label = info.loadLabel(manager).toString();
+                        return new App(packageName, label);
+                    }
+                }));
             }
+
+            // Meanwhile, merge them with the top apps popularity.
+            TopAppsTable popularity = getTopApps(context);
+            List<App> deviceAppItems = new ArrayList<>(futures.size());
+            for (Future<App> future : futures) {
+                App appItem = future.get();
+                appItem.setPopularity(popularity.getPopularity(appItem.getPackageName()));
+                deviceAppItems.add(appItem);
+            }
+            return deviceAppItems;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the top apps table, opening it the first time.
+     */
+    @NonNull
+    private static TopAppsTable getTopApps(@NonNull Context context) throws IOException {
+        synchronized (AppsGenerator.class) {
+            if (sTopApps == null) sTopApps = TopAppsTable.open(context);
+            return sTopApps;
         }
-        return deviceAppItems;
     }
 
     @Override
     public void release() {
-        // Do nothing
+        maybeUnregisterReceiver();
     }
 }
@@ -2,27 +2,36 @@ package io.branch.search.widget.generator;
 
 import android.Manifest;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.provider.ContactsContract;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
 import android.text.TextUtils;
 
-import com.google.android.gms.tasks.Task;
-import com.google.android.gms.tasks.Tasks;
-
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
 
+import io.branch.search.widget.database.BranchDatabase;
+import io.branch.search.widget.database.ContactName;
 import io.branch.search.widget.database.ContactsDao;
+import io.branch.search.widget.index.ContactsIndex;
 import io.branch.search.widget.model.Contact;
+import io.branch.search.widget.util.Utility;
+import io.branch.search.widget.util.WordMatcher;
 
 import static android.provider.ContactsContract.*;
 
@@ -50,11 +59,55 @@ public class ContactsGenerator extends DatabaseGenerator<Contact> {
     private static final String[] CANDIDATE_HOME = {"home"};
     private static final String[][] CANDIDATES = {CANDIDATE_MOM, CANDIDATE_DAD, CANDIDATE_HOME};
 
-    private static final List<Contact> sContacts
-            = Collections.synchronizedList(new ArrayList<Contact>());
-    private static boolean sContactsShouldBeEmpty = false;
-    private static boolean sFirstSyncDone = false;
-    private static boolean sIsSynced = true; // default to true!
+    /**
+     * Same order as {@link ContactsDao#getAll()}.
+     */
+    private static final Comparator<Contact> ORDER = new Comparator<Contact>() {
+        @Override
+        public int compare(Contact first, Contact second) {
+            if (first.getInteractions() != second.getInteractions()) {
+                return first.getInteractions() > second.getInteractions() ? -1 : 1;
+            }
+            return first.getFullName().compareTo(second.getFullName());
+        }
+    };
+
+    // Number of Data rows that are read at once while syncing.
+    private static final int PAGE_SIZE = 500;
+
+    // Preferences key of the timestamp of the last contact change that was synced.
+    private static final String SYNC_TIMESTAMP_KEY = "CONTACTS_SYNC_TIMESTAMP";
+    // Preferences key of the indexes of the CANDIDATES that were found by previous syncs.
+    private static final String CANDIDATES_FOUND_KEY = "CONTACTS_CANDIDATES_FOUND";
+
+    private static final WordMatcher sIndexMatcher = new WordMatcher();
+    private static final AtomicReference<ContactsSnapshot> sSnapshot = new AtomicReference<>(
+            new ContactsSnapshot(new ContactsIndex(Collections.<Contact>emptyList(),
+                    sIndexMatcher), 0));
+    private static final Object sLoadLock = new Object();
+    private static final InteractionsBuffer<Contact> sInteractions
+            = new InteractionsBuffer<Contact>() {
+        @Override
+        protected void write(@NonNull Context context,
+                             @NonNull Map<Integer, Integer> deltas) {
+            BranchDatabase.getInstance(context).contactItemDao().addInteractions(deltas);
+        }
+    };
+    private static volatile boolean sContactsShouldBeEmpty = false;
+    private static volatile boolean sFirstSyncDone = false;
+    private static volatile boolean sIsSynced = true; // default to true!
+
+    /**
+     * A snapshot of the contacts, with their search indexes.
+     */
+    private static class ContactsSnapshot extends Snapshot<Contact> {
+        @NonNull private final ContactsIndex mIndex;
+
+        private ContactsSnapshot(@NonNull ContactsIndex index, int version) {
+            super(index.getContacts(), version);
+            mIndex = index;
+        }
+    }
 
     private Context mObserverContext = null;
     private final ContentObserver mObserver = new ContentObserver(null) {
@@ -62,6 +115,9 @@ public class ContactsGenerator extends DatabaseGenerator<Contact> {
         public void onChange(boolean selfChange, Uri uri) {
             super.onChange(selfChange, uri);
             sIsSynced = false;
+            // Sync now, rather than in the next query.
+            Context context = mObserverContext;
+            if (context != null) ReindexScheduler.refresh(context, ContactsGenerator.this);
         }
     };
 
@@ -98,216 +154,626 @@ public class ContactsGenerator extends DatabaseGenerator<Contact> {
             sIsSynced = true;
             return true;
         }
-        if (sContacts.isEmpty() && !sContactsShouldBeEmpty) {
-            sContacts.addAll(getDao(context).getAll());
+        if (isEmpty()) setContacts(loadContacts(context));
+        return isEmpty();
+    }
+
+    /**
+     * Reads all contacts from the database, after writing all pending interactions.
+     * @param context a context
+     * @return the contacts
+     */
+    @NonNull
+    private List<Contact> loadContacts(final @NonNull Context context) {
+        try {
+            return sInteractions.flushAndRead(context, new Callable<List<Contact>>() {
+                @Override
+                public List<Contact> call() {
+                    return getDao(context).getAll();
+                }
+            });
+        } catch (Exception e) {
+            throw new RuntimeException(e);
         }
-        return sContacts.isEmpty() && !sContactsShouldBeEmpty;
+    }
+
+    /**
+     * Whether the database might be out of sync with the device contacts.
+     */
+    private static boolean needsSync() {
+        return !sFirstSyncDone || !sIsSynced;
+    }
+
+    /**
+     * Whether our snapshot has no contacts, though there might be some.
+     */
+    private static boolean isEmpty() {
+        return sSnapshot.get().getItems().isEmpty() && !sContactsShouldBeEmpty;
+    }
+
+    @NonNull
+    @Override
+    public Snapshot<Contact> getSnapshot(@NonNull Context context) {
+        return getContactsSnapshot(context);
     }
 
     @NonNull
     @Override
     public List<Contact> get(@NonNull Context context) {
+        return getContactsSnapshot(context).getItems();
+    }
+
+    /**
+     * Same as {@link #get(Context)}, but returns the search indexes of the list,
+     * which are rebuilt every time the list changes.
+     * Should be called from background threads.
+     *
+     * @param context a context
+     * @return the contacts index
+     */
+    @NonNull
+    public ContactsIndex getIndex(@NonNull Context context) {
+        return getContactsSnapshot(context).mIndex;
+    }
+
+    /**
+     * Searches the contact names in the database, with the same ranking as {@link #get(Context)}.
+     * Unlike {@link #get(Context)} and {@link #getIndex(Context)}, this does not keep the list
+     * in memory: if it was loaded, it is dropped when syncing, and it will be read again from
+     * the database only if someone asks for it. If a sync is due, it is scheduled, and the
+     * database is searched as it is.
+     * Should be called from background threads.
+     *
+     * @param context a context
+     * @param query the query
+     * @param limit max number of results
+     * @return a list of contacts, possibly empty
+     */
+    @NonNull
+    public List<Contact> search(@NonNull Context context, @NonNull String query, int limit) {
+        maybeRegisterObserver(context);
+        // Search what we have. A sync can take long, so it doesn't block queries.
+        if (needsSync()) ReindexScheduler.refresh(context, this);
+        String match = ContactName.toMatchQuery(query);
+        if (match == null) return new ArrayList<>();
+        // Interactions are not flushed for every query: clicks are written after a short
+        // delay, when providers stop and before syncing, so the ranking catches up soon.
+        return getDao(context).search(match, limit);
+    }
+
+    @NonNull
+    private ContactsSnapshot getContactsSnapshot(@NonNull Context context) {
         maybeRegisterObserver(context);
+        if (isEmpty()) {
+            // Nothing to show yet. Load the database, even if a sync is due or running,
+            // and only wait for the sync if the database is empty too. We don't take the
+            // class lock, which is held while syncing, and we don't publish if a sync
+            // published meanwhile, since it has newer contacts.
+            synchronized (sLoadLock) {
+                ContactsSnapshot current = sSnapshot.get();
+                if (isEmpty()) {
+                    ContactsIndex index = new ContactsIndex(loadContacts(context),
+                            sIndexMatcher);
+                    sSnapshot.compareAndSet(current,
+                            new ContactsSnapshot(index, current.getVersion() + 1));
+                }
+            }
+            if (isEmpty()) return refreshSnapshot(context);
+        }
+        // Serve the current contacts, but sync in the background if needed.
+        // Otherwise the observer will tell us.
+        if (needsSync()) ReindexScheduler.refresh(context, this);
+        return sSnapshot.get();
+    }
+
+    @Override
+    public void refresh(@NonNull Context context) {
+        // Without permission, this would sync an empty list, and the sync that is
+        // due when the permission is granted would not happen.
+        if (ContextCompat.checkSelfPermission(context, PERMISSION)
+                != PackageManager.PERMISSION_GRANTED) return;
+        if (isEmpty()) {
+            // Nobody has read the list, maybe because we are searching the database.
+            // Don't load it in memory, it will be read from the database if needed.
+            syncDatabase(context);
+        } else {
+            refreshSnapshot(context);
+        }
+    }
+
+    /**
+     * Syncs the database if needed, dropping our snapshot if we did.
+     * @param context a context
+     */
+    private void syncDatabase(@NonNull Context context) {
+        synchronized (ContactsGenerator.class) {
+            if (needsSync()) {
+                sFirstSyncDone = true;
+                sIsSynced = true;
+                generate(context);
+                clearContacts();
+            }
+        }
+    }
+
+    /**
+     * Generates the contacts if needed, and returns the latest snapshot.
+     * @param context a context
+     * @return the snapshot
+     */
+    @NonNull
+    private ContactsSnapshot refreshSnapshot(@NonNull Context context) {
         // Synchronize on our class. Other instances of the same class might be doing the
         // same generation path, but we don't want to generate twice.
         synchronized (ContactsGenerator.class) {
             if (needsGeneration(context)) {
-                sContacts.clear();
-                sContacts.addAll(generate(context));
-                sContactsShouldBeEmpty = sContacts.isEmpty();
+                List<Contact> contacts = generate(context);
+                setContacts(contacts);
+                sContactsShouldBeEmpty = contacts.isEmpty();
+            }
+            // Interactions that were read from the DAO are not taken again here.
+            // If we have no contacts yet, keep them for later.
+            if (!sSnapshot.get().getItems().isEmpty()) {
+                Map<Integer, Integer> interactions = sInteractions.takeUnapplied();
+                if (!interactions.isEmpty()) {
+                    setContacts(withInteractions(sSnapshot.get().getItems(), interactions));
+                }
             }
         }
-        // Return a copy just to be safer.
-        return new ArrayList<>(sContacts);
+        return sSnapshot.get();
+    }
+
+    /**
+     * Returns a sorted copy of the given contacts, with the given new interactions.
+     * Contacts are copied rather than changed, since they might be read by other threads.
+     * @param contacts the contacts
+     * @param interactions new interactions, by id
+     * @return new contacts
+     */
+    @NonNull
+    private static List<Contact> withInteractions(@NonNull List<Contact> contacts,
+                                                  @NonNull Map<Integer, Integer> interactions) {
+        List<Contact> sorted = new ArrayList<>(contacts.size());
+        for (Contact contact : contacts) {
+            Integer delta = interactions.get(contact.getId());
+            sorted.add(delta == null ? contact
+                    : contact.withInteractions(contact.getInteractions() + delta));
+        }
+        Collections.sort(sorted, ORDER);
+        return sorted;
+    }
+
+    @Override
+    public int getVersion() {
+        return sSnapshot.get().getVersion();
+    }
+
+    /**
+     * Publishes a new snapshot with the given contacts, changing the version.
+     * The index is built here, before publishing, so that it is ready
+     * by the time providers need it.
+     * @param contacts new contacts
+     */
+    private static void setContacts(@NonNull List<Contact> contacts) {
+        ContactsIndex index = new ContactsIndex(contacts, sIndexMatcher);
+        ContactsSnapshot current;
+        do {
+            current = sSnapshot.get();
+        } while (!sSnapshot.compareAndSet(current,
+                new ContactsSnapshot(index, current.getVersion() + 1)));
+    }
+
+    /**
+     * Drops our snapshot, changing the version. It will be loaded
+     * again from the database by {@link #needsGeneration(Context)}.
+     */
+    private static void clearContacts() {
+        sContactsShouldBeEmpty = false;
+        setContacts(Collections.<Contact>emptyList());
     }
 
     @Override
     public void add(final @NonNull Context context, final @NonNull Contact item) {
         maybeRegisterObserver(context);
-        // Increase interactions and save. Also we must clear sContacts so it will be
-        // updated at the next get() call. This is not very expensive.
-        item.setInteractions(item.getInteractions() + 1);
-        Tasks.call(AsyncTask.THREAD_POOL_EXECUTOR, new Callable<Void>() {
-            @Override
-            public Void call() {
-                getDao(context).update(item);
-                sContacts.clear();
-                sContacts.addAll(getDao(context).getAll());
-                return null;
-            }
-        });
+        // The DAO and our snapshot are updated later by the buffer.
+        sInteractions.add(context, item);
+        // Not in our snapshot, maybe because we are searching the database.
+        if (!sSnapshot.get().getItems().contains(item)) return;
+        // Our snapshot is sorted and indexed again on the reindex thread, so that many clicks
+        // cost a single pass. It will be updated at the next get() call after that.
+        ReindexScheduler.refresh(context, this);
+    }
+
+    @Override
+    public void flush() {
+        sInteractions.flush();
     }
 
     @NonNull
     @Override
-    protected List<Contact> onGenerate(final @NonNull Context context) {
+    protected List<Contact> onGenerate(final @NonNull Context context) throws Exception {
         if (ContextCompat.checkSelfPermission(context, PERMISSION)
                 != PackageManager.PERMISSION_GRANTED) {
             // We can't read contacts. Return an empty list, which means we failed.
             return new ArrayList<>();
         }
-        // We must sync the device apps and the dao apps.
-        List<Contact> deviceContacts = getDeviceContacts(context);
-        List<Contact> daoContacts = getDao(context).getAll();
-
-        // Remove from DAO any app that's not in the device anymore.
-        for (Contact daoContact : daoContacts) {
-            if (!deviceContacts.contains(daoContact)) {
-                getDao(context).delete(daoContact);
+        // Make sure the DAO has all interactions, and that none is written while we sync,
+        // since changed contacts are written with the interactions we read.
+        return sInteractions.flushAndRead(context, new Callable<List<Contact>>() {
+            @Override
+            public List<Contact> call() {
+                return sync(context);
             }
+        });
+    }
+
+    /**
+     * Syncs the device contacts with the DAO.
+     *
+     * @return the contacts, sorted like the DAO query does
+     */
+    @NonNull
+    private List<Contact> sync(@NonNull Context context) {
+        // We must sync the device contacts and the dao contacts. If we know when we last
+        // did it, only read what changed since then.
+        ContactsDao dao = getDao(context);
+        SharedPreferences preferences = Utility.getSharedPreferences(context);
+        long since = preferences.getLong(SYNC_TIMESTAMP_KEY, 0);
+        long timestamp;
+        boolean[] candidatesFound = new boolean[CANDIDATES.length];
+        if (since > 0
+                && since > System.currentTimeMillis() - DeletedContacts.DAYS_KEPT_MILLISECONDS
+                && dao.getCount() > 0) {
+            // Candidates found by previous syncs are in the DAO, don't pick another one.
+            Set<String> found = preferences.getStringSet(CANDIDATES_FOUND_KEY,
+                    Collections.<String>emptySet());
+            for (int i = 0; i < CANDIDATES.length; i++) {
+                candidatesFound[i] = found.contains(String.valueOf(i));
+            }
+            timestamp = syncChanges(context, dao, since, candidatesFound);
+        } else {
+            timestamp = syncAll(context, dao, candidatesFound);
+        }
+        Set<String> found = new HashSet<>();
+        for (int i = 0; i < CANDIDATES.length; i++) {
+            if (candidatesFound[i]) found.add(String.valueOf(i));
+        }
+        preferences.edit()
+                .putLong(SYNC_TIMESTAMP_KEY, timestamp)
+                .putStringSet(CANDIDATES_FOUND_KEY, found)
+                .apply();
+
+        // Return. Contacts will be sorted based on DAO query.
+        return dao.getAll();
+    }
+
+    /**
+     * Syncs all the device contacts with the DAO, in a single transaction.
+     * Device contacts are streamed and compared with the dao ones by id, so this is a single pass.
+     *
+     * @param candidatesFound the CANDIDATES that were found, updated while reading
+     * @return the timestamp of the most recent change
+     */
+    private long syncAll(@NonNull Context context,
+                         @NonNull ContactsDao dao,
+                         @NonNull boolean[] candidatesFound) {
+        final Map<Integer, Contact> daoContacts = new HashMap<>();
+        for (Contact daoContact : dao.getAll()) {
+            daoContacts.put(daoContact.getId(), daoContact);
         }
-        daoContacts = getDao(context).getAll();
 
-        // Add to DAO any app that's not in dao but is in device, plus check
+        // Add to DAO any contact that's not in dao but is in device, plus check
         // for changes.
-        for (Contact deviceContact : deviceContacts) {
-            int daoIndex = daoContacts.indexOf(deviceContact);
-            if (daoIndex < 0) {
-                getDao(context).update(deviceContact);
-            } else {
-                Contact daoContact = daoContacts.get(daoIndex);
-                if (daoContact.getFullName().equals(deviceContact.getFullName())
-                        && daoContact.getInteractions() >= deviceContact.getInteractions()
-                        && Objects.equals(daoContact.getPhoneNumber(),
-                        deviceContact.getPhoneNumber())
-                        && Objects.equals(daoContact.getFirstName(),
-                        deviceContact.getFirstName())) {
-                    // These contacts are identical.
-                    //noinspection UnnecessaryContinue
-                    continue;
-                } else {
-                    // Merge the two contacts.
-                    Contact newContact = new Contact(
-                            deviceContact.getId(),
-                            deviceContact.getFullName()
-                    );
-                    newContact.setPhoneNumber(deviceContact.getPhoneNumber());
-                    newContact.setFirstName(deviceContact.getFirstName());
-                    newContact.setInteractions(Math.max(
-                            daoContact.getInteractions(),
-                            deviceContact.getInteractions()
-                    ));
-                    getDao(context).update(newContact);
-                }
+        final List<Contact> added = new ArrayList<>();
+        final List<Contact> changed = new ArrayList<>();
+        long timestamp = readDeviceContacts(context, 0, candidatesFound,
+                new DeviceContactCallback() {
+                    @Override
+                    public void onDeviceContact(@NonNull Contact deviceContact) {
+                        Contact daoContact = daoContacts.remove(deviceContact.getId());
+                        Contact newContact = merge(daoContact, deviceContact);
+                        if (newContact != null) {
+                            (daoContact == null ? added : changed).add(newContact);
+                        }
+                    }
+                });
+
+        // Remove from DAO any contact that's not in the device anymore.
+        List<Contact> removed = new ArrayList<>(daoContacts.values());
+        dao.replaceAll(added, removed, changed);
+
+        // Deletions up to now are already applied.
+        return Math.max(timestamp, readLastDeletion(context));
+    }
+
+    /**
+     * Syncs the device contacts that were updated or deleted after the given timestamp,
+     * in a single transaction. A single edit costs a single contact, instead of a full sync.
+     *
+     * @param candidatesFound the CANDIDATES that were found, updated while reading
+     * @return the timestamp of the most recent change
+     */
+    private long syncChanges(@NonNull Context context,
+                             final @NonNull ContactsDao dao,
+                             long since,
+                             @NonNull boolean[] candidatesFound) {
+        // Remove from DAO any contact that was deleted.
+        List<Contact> removed = new ArrayList<>();
+        long deleted = readDeletedContacts(context, since, removed);
+
+        // Add to DAO any contact that was added or updated.
+        final List<Contact> added = new ArrayList<>();
+        final List<Contact> changed = new ArrayList<>();
+        long updated = readDeviceContacts(context, since, candidatesFound,
+                new DeviceContactCallback() {
+                    @Override
+                    public void onDeviceContact(@NonNull Contact deviceContact) {
+                        Contact daoContact = dao.get(deviceContact.getId());
+                        Contact newContact = merge(daoContact, deviceContact);
+                        if (newContact != null) {
+                            (daoContact == null ? added : changed).add(newContact);
+                        }
+                    }
+                });
+        dao.replaceAll(added, removed, changed);
+        return Math.max(since, Math.max(deleted, updated));
+    }
+
+    /**
+     * Reads the contacts that were deleted after the given timestamp, adding them
+     * to the given list. These contacts only have an id.
+     *
+     * @return the timestamp of the most recent deletion, or 0
+     */
+    private long readDeletedContacts(@NonNull Context context,
+                                     long since,
+                                     @NonNull List<Contact> removed) {
+        String[] fields = new String[] {
+                DeletedContacts.CONTACT_ID,
+                DeletedContacts.CONTACT_DELETED_TIMESTAMP
+        };
+        String selection = DeletedContacts.CONTACT_DELETED_TIMESTAMP + " > ?";
+        String[] selectionArgs = new String[] { String.valueOf(since) };
+        Cursor cursor = context.getContentResolver().query(DeletedContacts.CONTENT_URI,
+                fields, selection, selectionArgs, null);
+        if (cursor == null) {
+            throw new RuntimeException("Cursor is null.");
+        }
+        long timestamp = 0;
+        try {
+            while (cursor.moveToNext()) {
+                removed.add(new Contact(cursor.getInt(0), ""));
+                timestamp = Math.max(timestamp, cursor.getLong(1));
             }
+        } finally {
+            cursor.close();
         }
-        daoContacts = getDao(context).getAll();
+        return timestamp;
+    }
 
-        // Return. Apps will be sorted based on DAO query.
-        return daoContacts;
+    /**
+     * Returns the timestamp of the most recent deletion, or 0. Only that row is read,
+     * instead of all the deletions of the last {@link DeletedContacts#DAYS_KEPT_MILLISECONDS}.
+     */
+    private long readLastDeletion(@NonNull Context context) {
+        String[] fields = new String[] { DeletedContacts.CONTACT_DELETED_TIMESTAMP };
+        String sortOrder = DeletedContacts.CONTACT_DELETED_TIMESTAMP + " DESC";
+        Uri uri = DeletedContacts.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ContactsContract.LIMIT_PARAM_KEY, "1")
+                .build();
+        Cursor cursor = context.getContentResolver().query(uri, fields, null, null, sortOrder);
+        if (cursor == null) {
+            throw new RuntimeException("Cursor is null.");
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
     }
 
-    @NonNull
-    private List<Contact> getDeviceContacts(@NonNull Context context) {
-        List<Contact> results = new ArrayList<>();
+    /**
+     * Returns the contact that should be written to the DAO, or null if the DAO contact
+     * is already up to date.
+     */
+    @Nullable
+    private static Contact merge(@Nullable Contact daoContact, @NonNull Contact deviceContact) {
+        if (daoContact == null) {
+            return deviceContact;
+        }
+        if (daoContact.getFullName().equals(deviceContact.getFullName())
+                && daoContact.getInteractions() >= deviceContact.getInteractions()
+                && Objects.equals(daoContact.getPhoneNumber(), deviceContact.getPhoneNumber())
+                && Objects.equals(daoContact.getFirstName(), deviceContact.getFirstName())) {
+            // These contacts are identical.
+            return null;
+        }
+        // Merge the two contacts.
+        Contact newContact = new Contact(
+                deviceContact.getId(),
+                deviceContact.getFullName()
+        );
+        newContact.setPhoneNumber(deviceContact.getPhoneNumber());
+        newContact.setFirstName(deviceContact.getFirstName());
+        newContact.setInteractions(Math.max(
+                daoContact.getInteractions(),
+                deviceContact.getInteractions()
+        ));
+        return newContact;
+    }
+
+    private interface DeviceContactCallback {
+        void onDeviceContact(@NonNull Contact contact);
+    }
+
+    /**
+     * Reads the device contacts that were updated after the given timestamp, passing each one
+     * to the callback once it is complete. Rows are sorted by contact, so we only need to
+     * remember the current contact, and they are read in pages, so that we never hold
+     * a huge cursor window.
+     *
+     * @param candidatesFound the CANDIDATES that were found, updated while reading
+     * @return the timestamp of the most recent update, or 0
+     */
+    private long readDeviceContacts(@NonNull Context context,
+                                    long since,
+                                    @NonNull boolean[] candidatesFound,
+                                    @NonNull DeviceContactCallback callback) {
         // We need first/last name information so we must query the top-level Data URI
         // and ask for rows of two kinds, either Phone or StructuredName type.
-        String selection = Data.MIMETYPE + " = ? OR "
-                + Data.MIMETYPE + " = ?";
-        String[] selectionArgs = new String[] {
-                CommonDataKinds.Phone.CONTENT_ITEM_TYPE,
-                CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE,
-        };
+        // Pages start after the last row of the previous page.
+        String selection = "(" + Data.MIMETYPE + " = ? OR "
+                + Data.MIMETYPE + " = ?) AND "
+                + Data.CONTACT_LAST_UPDATED_TIMESTAMP + " > ? AND ("
+                + Data.CONTACT_ID + " > ? OR ("
+                + Data.CONTACT_ID + " = ? AND " + Data._ID + " > ?))";
         String[] fields = new String[] {
+                Data._ID,
                 Data.CONTACT_ID,
                 Data.DISPLAY_NAME_PRIMARY,
                 Data.MIMETYPE,
+                Data.CONTACT_LAST_UPDATED_TIMESTAMP,
                 CommonDataKinds.Phone.NUMBER, // For Phone rows
                 CommonDataKinds.StructuredName.GIVEN_NAME, // For StructuredName rows
                 CommonDataKinds.StructuredName.FAMILY_NAME, // For StructuredName rows
                 CommonDataKinds.StructuredName.PREFIX // For StructuredName rows
         };
-        Cursor cursor = context.getContentResolver()
-                .query(ContactsContract.Data.CONTENT_URI,
-                        fields,
-                        selection,
-                        selectionArgs,
-                        null);
-        if (cursor == null) {
-            throw new RuntimeException("Cursor is null.");
-        }
-        while (cursor.moveToNext()) {
-            int contactId = cursor.getInt(cursor.getColumnIndex(Data.CONTACT_ID));
-            String contactName = cursor.getString(cursor.getColumnIndex(Data.DISPLAY_NAME_PRIMARY));
-            if (contactName == null) continue; // Not sure what this is, but we don't want it.
-            Contact contactItem = new Contact(contactId, contactName);
-            int index = results.indexOf(contactItem);
-            if (index >= 0) {
-                // Retrieve information from the previous kind.
-                contactItem = results.get(index);
+        String sortOrder = Data.CONTACT_ID + " ASC, " + Data._ID + " ASC";
+        Uri uri = Data.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ContactsContract.LIMIT_PARAM_KEY,
+                        String.valueOf(PAGE_SIZE))
+                .build();
+
+        Contact contactItem = null;
+        long lastContactId = -1;
+        long lastDataId = -1;
+        long timestamp = 0;
+        while (true) {
+            String[] selectionArgs = new String[] {
+                    CommonDataKinds.Phone.CONTENT_ITEM_TYPE,
+                    CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE,
+                    String.valueOf(since),
+                    String.valueOf(lastContactId),
+                    String.valueOf(lastContactId),
+                    String.valueOf(lastDataId)
+            };
+            Cursor cursor = context.getContentResolver()
+                    .query(uri, fields, selection, selectionArgs, sortOrder);
+            if (cursor == null) {
+                throw new RuntimeException("Cursor is null.");
             }
+            int count = cursor.getCount();
+            try {
+                int dataIdColumn = cursor.getColumnIndexOrThrow(Data._ID);
+                int contactIdColumn = cursor.getColumnIndexOrThrow(Data.CONTACT_ID);
+                int nameColumn = cursor.getColumnIndexOrThrow(Data.DISPLAY_NAME_PRIMARY);
+                int mimeTypeColumn = cursor.getColumnIndexOrThrow(Data.MIMETYPE);
+                int timestampColumn = cursor.getColumnIndexOrThrow(
+                        Data.CONTACT_LAST_UPDATED_TIMESTAMP);
+                int numberColumn = cursor.getColumnIndexOrThrow(
+                        CommonDataKinds.Phone.NUMBER);
+                int givenColumn = cursor.getColumnIndexOrThrow(
+                        CommonDataKinds.StructuredName.GIVEN_NAME);
+                int familyColumn = cursor.getColumnIndexOrThrow(
+                        CommonDataKinds.StructuredName.FAMILY_NAME);
+                int prefixColumn = cursor.getColumnIndexOrThrow(
+                        CommonDataKinds.StructuredName.PREFIX);
+                while (cursor.moveToNext()) {
+                    lastDataId = cursor.getLong(dataIdColumn);
+                    lastContactId = cursor.getLong(contactIdColumn);
+                    timestamp = Math.max(timestamp, cursor.getLong(timestampColumn));
+                    int contactId = (int) lastContactId;
+                    String contactName = cursor.getString(nameColumn);
+                    // Not sure what this is, but we don't want it.
+                    if (contactName == null) continue;
+                    if (contactItem == null || contactItem.getId() != contactId) {
+                        // Rows of the previous contact are over.
+                        if (contactItem != null) {
+                            onDeviceContactRead(contactItem, candidatesFound, callback);
+                        }
+                        contactItem = new Contact(contactId, contactName);
+                    }
 
-            // Apply information based on the mime type.
-            String mimeType = cursor.getString(cursor.getColumnIndex(Data.MIMETYPE));
-            if (mimeType.equals(CommonDataKinds.Phone.CONTENT_ITEM_TYPE)
-                    && !contactItem.hasPhoneNumber()) {
-                String phoneNumber = cursor.getString(cursor
-                        .getColumnIndex(CommonDataKinds.Phone.NUMBER));
-                contactItem.setPhoneNumber(phoneNumber);
-            } else if (mimeType.equals(CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE)
-                    && !contactItem.hasFirstName()) {
-                String prefix = cursor.getString(cursor.getColumnIndex(
-                        CommonDataKinds.StructuredName.PREFIX));
-                String given = cursor.getString(cursor.getColumnIndex(
-                        CommonDataKinds.StructuredName.GIVEN_NAME));
-                String family = cursor.getString(cursor.getColumnIndex(
-                        CommonDataKinds.StructuredName.FAMILY_NAME));
-                prefix = TextUtils.isEmpty(prefix) ? null : prefix;
-                given = TextUtils.isEmpty(given) ? null : given;
-                family = TextUtils.isEmpty(family) ? null : family;
-                // First, check that we have the information. If we don't, probably the user
-                // has written the contact information in a single line.
-                if (given != null && family != null) {
-                    // Which is the "first" name? The given name or the family name? It depends
-                    // on culture and alphabet. But our goal is to get the very "first" name,
-                    // since it is shown BEFORE the rest - just in a different format.
-                    String full = contactItem.getFullName();
-                    if (full.startsWith(given)) {
-                        contactItem.setFirstName(given);
-                    } else if (full.startsWith(family)) {
-                        contactItem.setFirstName(family);
-                    } else if (prefix != null && full.startsWith(prefix + " " + given)) {
-                        contactItem.setFirstName(prefix + " " + given);
-                    } else if (prefix != null && full.startsWith(prefix + " " + family)) {
-                        contactItem.setFirstName(prefix + " " + family);
-                    } else if (prefix != null && full.startsWith(prefix + given)) {
-                        contactItem.setFirstName(prefix + given);
-                    } else if (prefix != null && full.startsWith(prefix + family)) {
-                        contactItem.setFirstName(prefix + family);
+                    // Apply information based on the mime type.
+                    String mimeType = cursor.getString(mimeTypeColumn);
+                    if (mimeType.equals(CommonDataKinds.Phone.CONTENT_ITEM_TYPE)
+                            && !contactItem.hasPhoneNumber()) {
+                        contactItem.setPhoneNumber(cursor.getString(numberColumn));
+                    } else if (mimeType.equals(CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE)
+                            && !contactItem.hasFirstName()) {
+                        setFirstName(contactItem,
+                                cursor.getString(prefixColumn),
+                                cursor.getString(givenColumn),
+                                cursor.getString(familyColumn));
                     }
                 }
+            } finally {
+                cursor.close();
             }
+            if (count < PAGE_SIZE) break;
+        }
+        if (contactItem != null) {
+            onDeviceContactRead(contactItem, candidatesFound, callback);
+        }
+        return timestamp;
+    }
 
-            // Avoid duplication! Only add if needed.
-            if (index < 0) {
-                results.add(contactItem);
+    private static void setFirstName(@NonNull Contact contactItem,
+                                     @Nullable String prefix,
+                                     @Nullable String given,
+                                     @Nullable String family) {
+        prefix = TextUtils.isEmpty(prefix) ? null : prefix;
+        given = TextUtils.isEmpty(given) ? null : given;
+        family = TextUtils.isEmpty(family) ? null : family;
+        // First, check that we have the information. If we don't, probably the user
+        // has written the contact information in a single line.
+        if (given != null && family != null) {
+            // Which is the "first" name? The given name or the family name? It depends
+            // on culture and alphabet. But our goal is to get the very "first" name,
+            // since it is shown BEFORE the rest - just in a different format.
+            String full = contactItem.getFullName();
+            if (full.startsWith(given)) {
+                contactItem.setFirstName(given);
+            } else if (full.startsWith(family)) {
+                contactItem.setFirstName(family);
+            } else if (prefix != null && full.startsWith(prefix + " " + given)) {
+                contactItem.setFirstName(prefix + " " + given);
+            } else if (prefix != null && full.startsWith(prefix + " " + family)) {
+                contactItem.setFirstName(prefix + " " + family);
+            } else if (prefix != null && full.startsWith(prefix + given)) {
+                contactItem.setFirstName(prefix + given);
+            } else if (prefix != null && full.startsWith(prefix + family)) {
+                contactItem.setFirstName(prefix + family);
             }
         }
-        cursor.close();
+    }
 
-        // Extra loop to make sure we have assigned a first name. It is possible that we weren't
+    /**
+     * Completes a device contact whose rows have all been read, then passes it to the callback.
+     */
+    private static void onDeviceContactRead(@NonNull Contact item,
+                                            @NonNull boolean[] candidatesFound,
+                                            @NonNull DeviceContactCallback callback) {
+        // Make sure we have assigned a first name. It is possible that we weren't
         // able to detect one, but we can guess it like iOS does - first name is the first word.
-        for (Contact item : results) {
-            if (!item.hasFirstName()) {
-                List<String> names = item.getNames();
-                if (names.size() > 1) item.setFirstName(names.get(0));
-            }
+        if (!item.hasFirstName()) {
+            List<String> names = item.getNames();
+            if (names.size() > 1) item.setFirstName(names.get(0));
         }
 
         // If a contact matches our preference pattern, add an 'interaction' to them.
-        // This will make them appear as first in the list.
-        for (String[] tests : CANDIDATES) {
-            // See if we find 1 contact that matches any of these.
-            contactsLoop: for (Contact item : results) {
-                for (String test : tests) {
-                    if (item.getFullName().equalsIgnoreCase(test)) {
-                        item.setInteractions(1);
-                        break contactsLoop; // Check with next array
-                    }
+        // This will make them appear as first in the list. Only 1 contact per array.
+        candidatesLoop: for (int i = 0; i < CANDIDATES.length; i++) {
+            if (candidatesFound[i]) continue;
+            for (String test : CANDIDATES[i]) {
+                if (item.getFullName().equalsIgnoreCase(test)) {
+                    item.setInteractions(1);
+                    candidatesFound[i] = true;
+                    break candidatesLoop;
                 }
             }
         }
-        return results;
+        callback.onDeviceContact(item);
     }
 
     @Override
@@ -3,8 +3,6 @@ package io.branch.search.widget.generator;
 import android.content.Context;
 import android.support.annotation.NonNull;
 
-import androidx.room.Room;
-
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.Tasks;
 
@@ -21,23 +19,10 @@ import io.branch.search.widget.database.DatabaseItem;
  */
 public abstract class DatabaseGenerator<T extends DatabaseItem> implements Generator<T> {
 
-    private final static Object sLock = new Object();
-    private static BranchDatabase sDatabase = null;
-
     @SuppressWarnings("WeakerAccess")
     @NonNull
     protected BranchDatabase getDatabase(@NonNull Context context) {
-        if (sDatabase == null) {
-            synchronized (sLock) {
-                if (sDatabase == null) {
-                    sDatabase = Room.databaseBuilder(context.getApplicationContext(),
-                            BranchDatabase.class, "branchDatabase")
-                            .fallbackToDestructiveMigration()
-                            .build();
-                }
-            }
-        }
-        return sDatabase;
+        return BranchDatabase.getInstance(context);
     }
 
     /**
@@ -17,21 +17,51 @@ import io.branch.search.widget.database.DatabaseItem;
  *
  * With the {@link #add(Context, T)} method, the generator will be notified that a certain item
  * has been recently used. This item will be returned at the top of the list next time.
+ * Changes made by {@link #add(Context, T)} might be persisted later, see {@link #flush()}.
  *
  * @param <T> item type
  */
 interface Generator<T extends DatabaseItem> {
 
     /**
-     * Gets the current list of items, generating it if necessary.
+     * Gets the current list of items, generating it if there's none.
+     * If a list was already generated, this returns it right away and checks in the background
+     * whether it should be generated again. The new list will be returned by later calls.
      * Should be called from background threads.
      *
      * @param context a context
-     * @return a list of items, possibly empty
+     * @return the current snapshot, whose list is possibly empty
+     */
+    @NonNull
+    Snapshot<T> getSnapshot(@NonNull Context context);
+
+    /**
+     * Same as {@link #getSnapshot(Context)}, but returns the list only.
+     *
+     * @param context a context
+     * @return an unmodifiable list of items, possibly empty
      */
     @NonNull
     List<T> get(@NonNull Context context);
 
+    /**
+     * Returns a number that changes every time the list returned by {@link #get(Context)}
+     * changes. This can be used to invalidate data that was computed out of that list.
+     * This never blocks.
+     *
+     * @return the list version
+     */
+    int getVersion();
+
+    /**
+     * Generates the list now if it is out of date, so that the next calls to
+     * {@link #getSnapshot(Context)} return fresh items. Blocks while generating,
+     * so it should be called from background threads, see {@link ReindexScheduler}.
+     *
+     * @param context a context
+     */
+    void refresh(@NonNull Context context);
+
     /**
      * Adds this item to the list, as the most recently used.
      *
@@ -40,6 +70,12 @@ interface Generator<T extends DatabaseItem> {
      */
     void add(@NonNull Context context, @NonNull T item);
 
+    /**
+     * Persists the changes made by {@link #add(Context, T)} as soon as possible,
+     * in the background. Can be called from any thread.
+     */
+    void flush();
+
     /**
      * Should be called to release resources.
      */
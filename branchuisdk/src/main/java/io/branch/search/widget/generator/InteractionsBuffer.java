@@ -0,0 +1,193 @@
+package io.branch.search.widget.generator;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.branch.search.widget.database.DatabaseItem;
+
+/**
+ * A write-behind buffer for the interactions of items.
+ *
+ * Generators pass each item that was interacted with to {@link #add(Context, DatabaseItem)}.
+ * Only the number of new interactions of each id is kept, not the item, and they are written
+ * with a single {@link #write(Context, Map)} call after a short delay, or when {@link #flush()}
+ * is called, so that many clicks cost a single transaction. Writes only add to the interactions
+ * column of existing rows, so they can't undo a sync that ran meanwhile: a deleted item stays
+ * deleted, a renamed one keeps its name.
+ *
+ * The same interactions are also kept for the in-memory snapshot of the generator, until
+ * it takes them with {@link #takeUnapplied()}, or until it reads the database again with
+ * {@link #flushAndRead(Context, Callable)}, which includes them. Both happen under our lock,
+ * so an interaction is counted once, whatever the timing.
+ *
+ * @param <T> item type
+ */
+abstract class InteractionsBuffer<T extends DatabaseItem> {
+
+    private static final String TAG = "Branch::Interactions";
+    private static final long FLUSH_DELAY_MILLIS = 5000;
+
+    // Shared by all buffers. Writes are short and rare.
+    private static final ScheduledExecutorService sExecutor
+            = Executors.newSingleThreadScheduledExecutor();
+
+    // New interactions by item id, not written yet.
+    private final Map<Integer, Integer> mPending = new HashMap<>();
+    // New interactions by item id, not applied to the snapshot yet.
+    private final Map<Integer, Integer> mUnapplied = new HashMap<>();
+    private final Object mWriteLock = new Object();
+    @Nullable private Context mContext;
+    @Nullable private ScheduledFuture<?> mScheduledFlush;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            Context context;
+            synchronized (InteractionsBuffer.this) {
+                context = mContext;
+            }
+            if (context == null) return;
+            try {
+                flushNow(context);
+            } catch (RuntimeException e) {
+                // Not fatal, the items are written by the next flush.
+                Log.w(TAG, "Could not write interactions", e);
+            }
+        }
+    };
+
+    /**
+     * Adds the given interactions to the database rows with the given ids,
+     * in a single transaction. Called from a background thread.
+     *
+     * @param context a context
+     * @param deltas the number of new interactions, by id
+     */
+    protected abstract void write(@NonNull Context context, @NonNull Map<Integer, Integer> deltas);
+
+    /**
+     * Schedules a new interaction of the given item for writing.
+     *
+     * @param context a context
+     * @param item an item that was interacted with
+     */
+    synchronized void add(@NonNull Context context, @NonNull T item) {
+        mContext = context.getApplicationContext();
+        increment(mPending, item.getId());
+        increment(mUnapplied, item.getId());
+        if (mScheduledFlush == null) {
+            mScheduledFlush = sExecutor.schedule(mFlush,
+                    FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes all pending items as soon as possible, on a background thread.
+     * Can be called from any thread.
+     */
+    void flush() {
+        sExecutor.execute(mFlush);
+    }
+
+    private static void increment(@NonNull Map<Integer, Integer> deltas, int id) {
+        Integer delta = deltas.get(id);
+        deltas.put(id, delta == null ? 1 : delta + 1);
+    }
+
+    /**
+     * Returns the interactions that were not applied to the snapshot yet, by id,
+     * and forgets them.
+     *
+     * @return new interactions, by id
+     */
+    @NonNull
+    synchronized Map<Integer, Integer> takeUnapplied() {
+        Map<Integer, Integer> deltas = new HashMap<>(mUnapplied);
+        mUnapplied.clear();
+        return deltas;
+    }
+
+    /**
+     * Writes all pending items on the current thread. When this returns, writes that were
+     * in progress on other threads are complete as well, so the database can be read.
+     *
+     * @param context a context
+     */
+    void flushNow(@NonNull Context context) {
+        synchronized (mWriteLock) {
+            writePending(context, false);
+        }
+    }
+
+    /**
+     * Writes all pending items, then runs the given database read on the current thread,
+     * while no other write can happen. Interactions that were not applied to the snapshot
+     * are forgotten at the same moment the pending ones are taken, since the read includes them.
+     *
+     * @param context a context
+     * @param read the read
+     * @param <R> result type
+     * @return the result of the read
+     */
+    <R> R flushAndRead(@NonNull Context context, @NonNull Callable<R> read) throws Exception {
+        synchronized (mWriteLock) {
+            writePending(context, true);
+            return read.call();
+        }
+    }
+
+    /**
+     * Writes all pending items. Should be called with the write lock held.
+     * If the write fails, the items are pending again and a flush is scheduled.
+     */
+    private void writePending(@NonNull Context context, boolean clearUnapplied) {
+        Map<Integer, Integer> deltas;
+        Map<Integer, Integer> unapplied = null;
+        synchronized (this) {
+            if (mScheduledFlush != null) {
+                mScheduledFlush.cancel(false);
+                mScheduledFlush = null;
+            }
+            if (clearUnapplied) {
+                unapplied = new HashMap<>(mUnapplied);
+                mUnapplied.clear();
+            }
+            if (mPending.isEmpty()) return;
+            deltas = new HashMap<>(mPending);
+            mPending.clear();
+        }
+        try {
+            write(context, deltas);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                merge(mPending, deltas);
+                // The read that would have included them won't happen.
+                if (unapplied != null) merge(mUnapplied, unapplied);
+                if (mScheduledFlush == null) {
+                    mScheduledFlush = sExecutor.schedule(mFlush,
+                            FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private static void merge(@NonNull Map<Integer, Integer> deltas,
+                              @NonNull Map<Integer, Integer> others) {
+        for (Map.Entry<Integer, Integer> entry : others.entrySet()) {
+            Integer delta = deltas.get(entry.getKey());
+            deltas.put(entry.getKey(), delta == null
+                    ? entry.getValue() : delta + entry.getValue());
+        }
+    }
+}
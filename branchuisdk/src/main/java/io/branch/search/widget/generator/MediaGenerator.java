@@ -0,0 +1,360 @@
+package io.branch.search.widget.generator;
+
+import android.Manifest;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.mtp.MtpConstants;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Environment;
+import android.provider.MediaStore;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.content.ContextCompat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.branch.search.widget.database.BranchDatabase;
+import io.branch.search.widget.database.MediaFile;
+import io.branch.search.widget.database.MediaFilesDao;
+import io.branch.search.widget.model.Media;
+
+import static android.provider.MediaStore.Files.FileColumns;
+
+/**
+ * Keeps a full-text index of the MediaStore files that live in the public directories
+ * (see {@link MediaFile}), and searches it.
+ *
+ * Like {@link ContactsGenerator}, we assume that something has changed when the app is first
+ * opened, then use a {@link ContentObserver} to check for changes while the app is alive.
+ * Syncs run on the {@link ReindexScheduler} thread, never while searching.
+ * Syncing is incremental: MediaStore ids only grow, so we only read the rows that have a
+ * greater id or a greater modification date than the ones we have, and delete the ids
+ * that are not in MediaStore anymore.
+ */
+public class MediaGenerator {
+
+    private static final String PERMISSION = Manifest.permission.READ_EXTERNAL_STORAGE;
+
+    // SQLite has a limit of 999 variables per statement.
+    private static final int MAX_DELETE_BATCH = 500;
+    private static final int PAGE_SIZE = 500;
+
+    private static final String MIME_TYPE_PDF = "application/pdf";
+    // MediaColumns.RELATIVE_PATH, added in 29.
+    private static final String COLUMN_RELATIVE_PATH = "relative_path";
+    // Hidden, but part of the files table since MTP support.
+    private static final String COLUMN_FORMAT = "format";
+
+    private static volatile boolean sFirstSyncDone = false;
+    private static volatile boolean sIsSynced = true; // default to true!
+
+    /**
+     * We only index files that belong to one of these folders.
+     * The position in this list is the {@link MediaFile#getBucket()}.
+     */
+    private static final List<File> FOLDERS = Arrays.asList(
+            Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM),
+            Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOCUMENTS),
+            Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS),
+            Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES),
+            Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES),
+            Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MUSIC)
+    );
+
+    private Context mObserverContext = null;
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            super.onChange(selfChange, uri);
+            sIsSynced = false;
+            // Sync now, rather than in the next query.
+            Context context = mObserverContext;
+            if (context != null) ReindexScheduler.refresh(context, MediaGenerator.this);
+        }
+    };
+
+    private void maybeRegisterObserver(@NonNull Context context) {
+        if (mObserverContext == null) {
+            mObserverContext = context.getApplicationContext();
+            mObserverContext.getContentResolver()
+                    .registerContentObserver(getContentUri(), true, mObserver);
+        }
+    }
+
+    private void maybeUnregisterObserver() {
+        if (mObserverContext != null) {
+            mObserverContext.getContentResolver().unregisterContentObserver(mObserver);
+            mObserverContext = null;
+            // We won't be told about changes anymore.
+            sIsSynced = false;
+        }
+    }
+
+    @NonNull
+    private static Uri getContentUri() {
+        return MediaStore.Files.getContentUri("external");
+    }
+
+    @NonNull
+    private MediaFilesDao getDao(@NonNull Context context) {
+        return BranchDatabase.getInstance(context).mediaFilesDao();
+    }
+
+    /**
+     * Whether the index might be out of sync with MediaStore.
+     */
+    private static boolean needsSync() {
+        return !sFirstSyncDone || !sIsSynced;
+    }
+
+    /**
+     * Returns the files whose name matches the given query. If a sync is due, it is
+     * scheduled, and the index is searched as it is. Should be called from background threads.
+     *
+     * @param context a context
+     * @param query the query
+     * @param limit max number of results
+     * @return a list of media, possibly empty
+     */
+    @NonNull
+    public List<Media> search(@NonNull Context context, @NonNull String query, int limit) {
+        if (ContextCompat.checkSelfPermission(context, PERMISSION)
+                != PackageManager.PERMISSION_GRANTED) {
+            return new ArrayList<>();
+        }
+        maybeRegisterObserver(context);
+        // A sync can take long, so it doesn't block queries.
+        if (needsSync()) ReindexScheduler.refresh(context, this);
+
+        String match = MediaFile.toMatchQuery(query);
+        if (match == null) return new ArrayList<>();
+        List<Media> results = new ArrayList<>();
+        for (MediaFile file : getDao(context).search(match, limit)) {
+            Uri uri = Uri.fromFile(new File(file.getPath()));
+            results.add(new Media(uri, file.getTitle(), file.getMediaType()));
+        }
+        return results;
+    }
+
+    /**
+     * Syncs the index with MediaStore if something has changed. Blocks while syncing,
+     * so it should be called from background threads, see {@link ReindexScheduler}.
+     *
+     * @param context a context
+     */
+    public void refresh(@NonNull Context context) {
+        // Without permission, the sync that is due when it is granted would not happen.
+        if (ContextCompat.checkSelfPermission(context, PERMISSION)
+                != PackageManager.PERMISSION_GRANTED) return;
+        synchronized (MediaGenerator.class) {
+            if (needsSync()) {
+                // Mark as synced before syncing, so that changes that happen
+                // while we are syncing will trigger another sync.
+                sFirstSyncDone = true;
+                sIsSynced = true;
+                sync(context);
+            }
+        }
+    }
+
+    private void sync(@NonNull Context context) {
+        MediaFilesDao dao = getDao(context);
+        ContentResolver resolver = context.getContentResolver();
+        List<String> filterArgs = new ArrayList<>();
+        String filterSelection = getFilterSelection(filterArgs);
+
+        // Delete what's not in MediaStore anymore.
+        Set<Long> deviceIds = new HashSet<>();
+        Cursor cursor = resolver.query(getContentUri(), new String[]{ FileColumns._ID },
+                filterSelection, filterArgs.toArray(new String[0]), null);
+        if (cursor == null) throw new RuntimeException("Cursor is null.");
+        try {
+            while (cursor.moveToNext()) {
+                deviceIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        List<Long> removed = new ArrayList<>();
+        for (Long id : dao.getIds()) {
+            if (!deviceIds.contains(id)) removed.add(id);
+        }
+        for (int i = 0; i < removed.size(); i += MAX_DELETE_BATCH) {
+            dao.delete(removed.subList(i, Math.min(removed.size(), i + MAX_DELETE_BATCH)));
+        }
+
+        // Add new files and update the modified ones, one page at a time.
+        String[] projection = {
+                FileColumns._ID,
+                FileColumns.DATA,
+                FileColumns.MEDIA_TYPE,
+                FileColumns.MIME_TYPE,
+                FileColumns.TITLE,
+                FileColumns.DATE_MODIFIED
+        };
+        String selection = filterSelection
+                + " AND (" + FileColumns._ID + " > ? OR " + FileColumns.DATE_MODIFIED + " >= ?)"
+                + " AND " + FileColumns._ID + " > ?";
+        String maxId = String.valueOf(dao.getMaxId());
+        String maxDateModified = String.valueOf(dao.getMaxDateModified());
+        long lastId = -1;
+        while (true) {
+            List<String> args = new ArrayList<>(filterArgs);
+            args.add(maxId);
+            args.add(maxDateModified);
+            args.add(String.valueOf(lastId));
+            cursor = query(resolver, projection, selection, args.toArray(new String[0]));
+            if (cursor == null) throw new RuntimeException("Cursor is null.");
+            List<MediaFile> files = new ArrayList<>();
+            int count = cursor.getCount();
+            try {
+                Columns columns = new Columns(cursor);
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(columns.id);
+                    MediaFile file = createFile(cursor, columns);
+                    if (file != null) files.add(file);
+                }
+            } finally {
+                cursor.close();
+            }
+            dao.update(files);
+            // If the limit was not honored, the next page will be empty.
+            if (count < PAGE_SIZE) break;
+        }
+    }
+
+    /**
+     * Returns a selection for the files that we index: files that are in one of the
+     * {@link #FOLDERS}, that are not folders, and are not hidden or in a hidden folder.
+     * This way MediaStore does all the filtering and we never have to touch the file system.
+     *
+     * @param args receives the selection arguments
+     * @return the selection
+     */
+    @NonNull
+    private static String getFilterSelection(@NonNull List<String> args) {
+        StringBuilder selection = new StringBuilder("(");
+        for (int i = 0; i < FOLDERS.size(); i++) {
+            if (i > 0) selection.append(" OR ");
+            if (Build.VERSION.SDK_INT >= 29) {
+                // The relative path is indexed, while the data column is deprecated in 29.
+                selection.append(COLUMN_RELATIVE_PATH).append(" LIKE ?");
+                args.add(FOLDERS.get(i).getName() + "/%");
+            } else {
+                selection.append(FileColumns.DATA).append(" LIKE ?");
+                args.add(FOLDERS.get(i).getAbsolutePath() + "/%");
+            }
+        }
+        selection.append(")");
+        selection.append(" AND ").append(FileColumns.DATA).append(" NOT LIKE ?");
+        args.add("%/.%");
+        // Not a lot of apps can open folders on click.
+        selection.append(" AND IFNULL(").append(COLUMN_FORMAT).append(", 0) <> ")
+                .append(MtpConstants.FORMAT_ASSOCIATION);
+        return selection.toString();
+    }
+
+    /**
+     * Queries a page of files, sorted by id. On 26+ the limit is passed through the query
+     * arguments, before that we get all the rows in the first page.
+     */
+    @Nullable
+    private static Cursor query(@NonNull ContentResolver resolver,
+                                @NonNull String[] projection,
+                                @NonNull String selection,
+                                @NonNull String[] selectionArgs) {
+        String sortOrder = FileColumns._ID + " ASC";
+        if (Build.VERSION.SDK_INT >= 26) {
+            Bundle queryArgs = new Bundle();
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+            queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS,
+                    selectionArgs);
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, sortOrder);
+            queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, PAGE_SIZE);
+            return resolver.query(getContentUri(), projection, queryArgs, null);
+        }
+        return resolver.query(getContentUri(), projection, selection, selectionArgs, sortOrder);
+    }
+
+    /**
+     * Column indexes of the sync projection, resolved once per cursor.
+     */
+    private static class Columns {
+        private final int id;
+        private final int data;
+        private final int mediaType;
+        private final int mimeType;
+        private final int title;
+        private final int dateModified;
+
+        private Columns(@NonNull Cursor cursor) {
+            id = cursor.getColumnIndexOrThrow(FileColumns._ID);
+            data = cursor.getColumnIndexOrThrow(FileColumns.DATA);
+            mediaType = cursor.getColumnIndexOrThrow(FileColumns.MEDIA_TYPE);
+            mimeType = cursor.getColumnIndexOrThrow(FileColumns.MIME_TYPE);
+            title = cursor.getColumnIndexOrThrow(FileColumns.TITLE);
+            dateModified = cursor.getColumnIndexOrThrow(FileColumns.DATE_MODIFIED);
+        }
+    }
+
+    /**
+     * Creates a file out of a cursor row with the sync projection,
+     * or returns null if it should not be indexed.
+     */
+    @Nullable
+    private static MediaFile createFile(@NonNull Cursor cursor, @NonNull Columns columns) {
+        String fullPath = cursor.getString(columns.data);
+        if (fullPath == null) return null;
+        if (fullPath.endsWith("/")) {
+            fullPath = fullPath.substring(0, fullPath.length() - 1);
+        }
+        int bucket = getBucket(fullPath);
+        if (bucket < 0) return null;
+        String lastPath = fullPath.substring(fullPath.lastIndexOf("/") + 1);
+
+        int mediaType;
+        int type = cursor.getInt(columns.mediaType);
+        if (type == FileColumns.MEDIA_TYPE_AUDIO) {
+            mediaType = Media.TYPE_AUDIO;
+        } else if (type == FileColumns.MEDIA_TYPE_IMAGE) {
+            mediaType = Media.TYPE_PICTURE;
+        } else if (type == FileColumns.MEDIA_TYPE_VIDEO) {
+            mediaType = Media.TYPE_VIDEO;
+        } else if (type == FileColumns.MEDIA_TYPE_PLAYLIST) {
+            mediaType = Media.TYPE_PLAYLIST;
+        } else if (MIME_TYPE_PDF.equals(cursor.getString(columns.mimeType))) {
+            mediaType = Media.TYPE_PDF;
+        } else {
+            mediaType = Media.TYPE_OTHER;
+        }
+        return new MediaFile(cursor.getLong(columns.id), MediaFile.toWords(lastPath), fullPath,
+                cursor.getString(columns.title), mediaType, bucket,
+                cursor.getLong(columns.dateModified));
+    }
+
+    private static int getBucket(@NonNull String fullPath) {
+        for (int i = 0; i < FOLDERS.size(); i++) {
+            if (fullPath.startsWith(FOLDERS.get(i).getAbsolutePath())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Should be called to release resources.
+     */
+    public void release() {
+        maybeUnregisterObserver();
+    }
+}
@@ -0,0 +1,28 @@
+package io.branch.search.widget.generator;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+
+/**
+ * The idle sync job scheduled by {@link ReindexScheduler#schedule(android.content.Context)}.
+ * Refreshes all generators, which also keeps their database in sync for the next process.
+ */
+public class ReindexJobService extends JobService {
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        ReindexScheduler.refreshAll(this, new Runnable() {
+            @Override
+            public void run() {
+                jobFinished(params, false);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The refresh can't be stopped. It will run again in the next window.
+        return false;
+    }
+}
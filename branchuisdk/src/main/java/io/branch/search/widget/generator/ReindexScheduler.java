@@ -0,0 +1,191 @@
+package io.branch.search.widget.generator;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs generator syncs ahead of time, so that queries only read ready snapshots.
+ *
+ * - Generators call {@link #refresh(Context, DatabaseGenerator)} when they are told that
+ *   something changed (a ContentObserver, see also {@link #onPackagesChanged(Context)}),
+ *   when items were clicked and must be sorted again, or when they serve a snapshot that
+ *   might be stale because they could not be told (before the first sync, for example).
+ *   Never just because they serve a snapshot. The sync runs on a single low priority thread,
+ *   and duplicate requests for the same generator are merged.
+ * - Providers call {@link #refresh(Context, DatabaseGenerator)} when initialized, so that the
+ *   first query finds a ready snapshot. They also call {@link #schedule(Context)}, which
+ *   schedules a periodic job that syncs everything while the device is idle and charging,
+ *   so that the database is fresh when the process starts.
+ * - {@link MediaGenerator} is not a generator, but its full-text index is synced the same way
+ *   through {@link #refresh(Context, MediaGenerator)}, so that searching never syncs.
+ */
+public class ReindexScheduler {
+
+    private static final String TAG = "Branch::Reindex";
+
+    // Should not collide with host app jobs.
+    private static final int JOB_ID = 0x42726978;
+    private static final long JOB_PERIOD_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "BranchReindex");
+        }
+    };
+
+    private static final ExecutorService sExecutor
+            = Executors.newSingleThreadExecutor(THREAD_FACTORY);
+
+    // Generator classes that have a refresh waiting to run.
+    private static final Set<Class<?>> sPending = new HashSet<>();
+
+    private ReindexScheduler() {}
+
+    /**
+     * Calls {@link Generator#refresh(Context)} on the reindex thread, unless a refresh of
+     * the same generator class is already waiting. Generators keep their lists in static
+     * fields, so any instance will do. Can be called from any thread.
+     *
+     * @param context a context
+     * @param generator the generator
+     */
+    public static void refresh(@NonNull Context context,
+                               @NonNull final DatabaseGenerator<?> generator) {
+        final Context appContext = context.getApplicationContext();
+        execute(generator.getClass(), new Runnable() {
+            @Override
+            public void run() {
+                refreshNow(appContext, generator);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #refresh(Context, DatabaseGenerator)}, for media.
+     *
+     * @param context a context
+     * @param generator the generator
+     */
+    public static void refresh(@NonNull Context context,
+                               @NonNull final MediaGenerator generator) {
+        final Context appContext = context.getApplicationContext();
+        execute(MediaGenerator.class, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    generator.refresh(appContext);
+                } catch (RuntimeException e) {
+                    // Not fatal, the next refresh will try again.
+                    Log.w(TAG, "Could not refresh " + MediaGenerator.class.getSimpleName(), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs the given refresh on the reindex thread, unless a refresh of the same type
+     * is already waiting.
+     */
+    private static void execute(@NonNull final Class<?> type, @NonNull final Runnable refresh) {
+        synchronized (sPending) {
+            if (!sPending.add(type)) return;
+        }
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Removed before running, so that changes notified during
+                // the refresh trigger another one.
+                synchronized (sPending) {
+                    sPending.remove(type);
+                }
+                refresh.run();
+            }
+        });
+    }
+
+    /**
+     * Should be called when packages are added, removed or updated, or when the locale
+     * changes, to refresh the apps. Can be called from any thread.
+     *
+     * @param context a context
+     */
+    static void onPackagesChanged(@NonNull Context context) {
+        AppsGenerator.setDirty();
+        refresh(context, new AppsGenerator());
+    }
+
+    /**
+     * Refreshes all generators on the reindex thread, then runs the given callback there.
+     *
+     * @param context a context
+     * @param callback called when done
+     */
+    static void refreshAll(@NonNull Context context, @NonNull final Runnable callback) {
+        final Context appContext = context.getApplicationContext();
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                refreshNow(appContext, new AppsGenerator());
+                refreshNow(appContext, new ContactsGenerator());
+                callback.run();
+            }
+        });
+    }
+
+    private static void refreshNow(@NonNull Context context,
+                                   @NonNull DatabaseGenerator<?> generator) {
+        try {
+            generator.refresh(context);
+        } catch (RuntimeException e) {
+            // Not fatal, the next refresh will try again.
+            Log.w(TAG, "Could not refresh " + generator.getClass().getSimpleName(), e);
+        }
+    }
+
+    /**
+     * Schedules the idle sync job, if it was not scheduled already.
+     *
+     * @param context a context
+     */
+    public static void schedule(@NonNull Context context) {
+        JobScheduler scheduler = (JobScheduler) context
+                .getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler == null) return;
+        if (Build.VERSION.SDK_INT >= 24) {
+            if (scheduler.getPendingJob(JOB_ID) != null) return;
+        } else {
+            List<JobInfo> jobs = scheduler.getAllPendingJobs();
+            for (JobInfo job : jobs) {
+                if (job.getId() == JOB_ID) return;
+            }
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, ReindexJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(JOB_PERIOD_MILLIS)
+                .build();
+        scheduler.schedule(job);
+    }
+}
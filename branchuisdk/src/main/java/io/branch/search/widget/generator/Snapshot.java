@@ -0,0 +1,43 @@
+package io.branch.search.widget.generator;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable list of items published by a {@link Generator}, together with its version.
+ * Generators never change a snapshot once it's published: they replace it with a new one,
+ * with a greater version. So readers can keep a snapshot, iterate it from any thread, and
+ * compare versions to know whether data computed out of it is still valid.
+ *
+ * @param <T> item type
+ */
+public class Snapshot<T> {
+
+    @NonNull private final List<T> mItems;
+    private final int mVersion;
+
+    Snapshot(@NonNull List<T> items, int version) {
+        mItems = Collections.unmodifiableList(new ArrayList<>(items));
+        mVersion = version;
+    }
+
+    /**
+     * Returns the items. The list can't be modified, so it must be copied before sorting.
+     * @return the items
+     */
+    @NonNull
+    public List<T> getItems() {
+        return mItems;
+    }
+
+    /**
+     * Returns the version, as in {@link Generator#getVersion()}.
+     * @return the version
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+}
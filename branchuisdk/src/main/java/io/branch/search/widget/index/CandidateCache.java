@@ -0,0 +1,119 @@
+package io.branch.search.widget.index;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Retains the full list of matches for the latest queries, so that when the user keeps typing
+ * ("jo", "joh", "john") we can filter the matches of the previous query instead of searching
+ * the whole dataset again. This works because matching is monotonic: anything that
+ * matches "john" also matches "joh".
+ *
+ * Entries are kept as a stack where each query is a prefix of the next one. When the user
+ * deletes characters, the entries that are not a prefix of the new query are dropped and we
+ * can go back to the matches of an earlier query without any filtering.
+ *
+ * The whole cache is invalidated when the {@link Source} passed to
+ * {@link #get(String, Source)} changes, so sources should be immutable snapshots
+ * of the dataset, like {@link WordIndex}.
+ *
+ * @param <T> item type
+ */
+public class CandidateCache<T> {
+
+    /**
+     * Computes matches for the cache.
+     * @param <T> item type
+     */
+    public interface Source<T> {
+
+        /**
+         * Returns all the items matching the query, in ranking order.
+         * Called when there is no previous query that we can refine.
+         */
+        @NonNull
+        List<T> findAll(@NonNull String query);
+
+        /**
+         * Returns the candidates, which matched a previous query, that
+         * also match this query, in the same order.
+         */
+        @NonNull
+        List<T> refine(@NonNull List<T> candidates, @NonNull String query);
+    }
+
+    private static final int MAX_ENTRIES = 32;
+
+    private static class Entry<T> {
+        private final String query;
+        private final List<T> matches;
+
+        private Entry(@NonNull String query, @NonNull List<T> matches) {
+            this.query = query;
+            this.matches = matches;
+        }
+    }
+
+    private final List<Entry<T>> mEntries = new ArrayList<>();
+    private Source<T> mSource;
+
+    /**
+     * Returns all the items that match the given query, in ranking order, possibly
+     * by refining the matches of a previous query.
+     *
+     * @param query the query
+     * @param source computes matches
+     * @return an unmodifiable list of matches
+     */
+    @NonNull
+    public List<T> get(@NonNull String query, @NonNull Source<T> source) {
+        Entry<T> base = findBase(query, source);
+        if (base != null && base.query.equals(query)) {
+            return base.matches;
+        }
+
+        List<T> matches;
+        if (base == null) {
+            matches = source.findAll(query);
+        } else {
+            matches = source.refine(base.matches, query);
+        }
+        matches = Collections.unmodifiableList(matches);
+        put(query, source, matches);
+        return matches;
+    }
+
+    /**
+     * Drops all the entries that can't be used to refine the given query, and returns
+     * the longest remaining one, or null.
+     */
+    private synchronized Entry<T> findBase(@NonNull String query, @NonNull Source<T> source) {
+        if (source != mSource) {
+            mEntries.clear();
+            mSource = source;
+        }
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+            Entry<T> entry = mEntries.get(i);
+            if (query.startsWith(entry.query)) {
+                return entry;
+            }
+            mEntries.remove(i);
+        }
+        return null;
+    }
+
+    private synchronized void put(@NonNull String query,
+                                  @NonNull Source<T> source,
+                                  @NonNull List<T> matches) {
+        // Another thread might have stored the same query while we were computing.
+        Entry<T> base = findBase(query, source);
+        if (base != null && base.query.equals(query)) return;
+        mEntries.add(new Entry<>(query, matches));
+        if (mEntries.size() > MAX_ENTRIES) {
+            mEntries.remove(0);
+        }
+    }
+}
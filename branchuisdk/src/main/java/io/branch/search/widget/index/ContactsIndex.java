@@ -0,0 +1,155 @@
+package io.branch.search.widget.index;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.branch.search.widget.model.Contact;
+import io.branch.search.widget.util.WordMatcher;
+
+/**
+ * An immutable snapshot of the search indexes over a list of contacts.
+ * It is built by {@link io.branch.search.widget.generator.ContactsGenerator} every time
+ * its list changes, on the syncing thread, so that providers never have to build it
+ * while the user is typing.
+ *
+ * All indexes return contacts in the order of the list that was passed to the constructor.
+ */
+public class ContactsIndex {
+
+    private static final WordIndex.LabelProvider<Contact> NAME_LABELS
+            = new WordIndex.LabelProvider<Contact>() {
+        @NonNull
+        @Override
+        public WordMatcher.Label getLabel(@NonNull Contact item, @NonNull WordMatcher matcher) {
+            return item.getPreparedName(matcher);
+        }
+    };
+
+    private static final WordIndex.LabelProvider<Contact> KEYPAD_LABELS
+            = new WordIndex.LabelProvider<Contact>() {
+        @NonNull
+        @Override
+        public WordMatcher.Label getLabel(@NonNull Contact item, @NonNull WordMatcher matcher) {
+            return item.getKeypadName(matcher);
+        }
+    };
+
+    private static final WordIndex.LabelProvider<Contact> PHONE_LABELS
+            = new WordIndex.LabelProvider<Contact>() {
+        @NonNull
+        @Override
+        public WordMatcher.Label getLabel(@NonNull Contact item, @NonNull WordMatcher matcher) {
+            return item.getPreparedPhoneNumber(matcher);
+        }
+    };
+
+    // Shorter numbers would match most of the contacts.
+    private static final int PHONE_MIN_DIGITS = 3;
+    private static final String PHONE_SEPARATORS = " +-().";
+
+    @NonNull private final WordMatcher mMatcher;
+    @NonNull private final List<Contact> mContacts;
+    @NonNull private final WordIndex<Contact> mNames;
+    // Built by the first keypad query, since keypad matching is optional.
+    @Nullable private volatile WordIndex<Contact> mKeypadNames;
+    @NonNull private final WordIndex<Contact> mPhoneNumbers;
+
+    public ContactsIndex(@NonNull List<Contact> contacts, @NonNull WordMatcher matcher) {
+        mMatcher = matcher;
+        mContacts = Collections.unmodifiableList(new ArrayList<>(contacts));
+        mNames = new WordIndex<>(contacts, matcher, NAME_LABELS);
+        mPhoneNumbers = new WordIndex<>(contacts, matcher, PHONE_LABELS, false);
+    }
+
+    /**
+     * Returns the matcher that was used to build this index.
+     * @return the matcher
+     */
+    @NonNull
+    public WordMatcher getMatcher() {
+        return mMatcher;
+    }
+
+    /**
+     * Returns the indexed contacts, in ranking order.
+     * @return the contacts
+     */
+    @NonNull
+    public List<Contact> getContacts() {
+        return mContacts;
+    }
+
+    /**
+     * Returns the number of indexed contacts.
+     * @return the size
+     */
+    public int size() {
+        return mNames.size();
+    }
+
+    /**
+     * Returns an index of the contact names, matched as in
+     * {@link WordMatcher#matches(String, String)}.
+     * @return the names index
+     */
+    @NonNull
+    public WordIndex<Contact> getNames() {
+        return mNames;
+    }
+
+    /**
+     * Returns an index of the contact names as typed on a dial pad, as in
+     * {@link WordMatcher#prepareKeypad(String)}. Only digit queries
+     * (see {@link WordMatcher#isKeypadQuery(String)}) should be passed to it.
+     * Lookups are two binary searches in the sorted word starts, which act as a digit trie.
+     *
+     * Keypad matching is off by default, so this index is built by the first call, without
+     * prefix tables: short digit queries are cheap to look up anyway.
+     * @return the keypad index
+     */
+    @NonNull
+    public WordIndex<Contact> getKeypadNames() {
+        WordIndex<Contact> keypadNames = mKeypadNames;
+        if (keypadNames == null) {
+            synchronized (this) {
+                keypadNames = mKeypadNames;
+                if (keypadNames == null) {
+                    keypadNames = new WordIndex<>(mContacts, mMatcher, KEYPAD_LABELS, false);
+                    mKeypadNames = keypadNames;
+                }
+            }
+        }
+        return keypadNames;
+    }
+
+    /**
+     * Returns the contacts whose phone number contains the digits of the given query,
+     * ignoring separators, so that "415 5" finds "+1 (415) 555-0100". Returns nothing
+     * if the query is not a phone number or has less than 3 digits.
+     *
+     * Each number is indexed with {@link WordMatcher#preparePhoneNumber(String)}, so the
+     * index is a suffix array of all numbers and this does two binary searches.
+     *
+     * @param query the query
+     * @param capacity max number of results
+     * @return a list of contacts, possibly empty
+     */
+    @NonNull
+    public List<Contact> findByPhoneNumber(@NonNull String query, int capacity) {
+        StringBuilder digits = new StringBuilder();
+        for (int i = 0; i < query.length(); i++) {
+            char character = query.charAt(i);
+            if (character >= '0' && character <= '9') {
+                digits.append(character);
+            } else if (PHONE_SEPARATORS.indexOf(character) < 0) {
+                return Collections.emptyList();
+            }
+        }
+        if (digits.length() < PHONE_MIN_DIGITS) return Collections.emptyList();
+        return mPhoneNumbers.find(digits.toString(), capacity);
+    }
+}
@@ -0,0 +1,232 @@
+package io.branch.search.widget.index;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.branch.search.widget.model.App;
+import io.branch.search.widget.model.Contact;
+import io.branch.search.widget.model.Shortcut;
+import io.branch.search.widget.util.WordMatcher;
+
+/**
+ * A single in-process entry point to the indexes of the local items that providers search:
+ * apps, contacts and shortcuts. Each provider publishes the index of its own dataset through
+ * the setters, then looks up its own type, for example with {@link #findApps(String)}.
+ *
+ * Each type has its own {@link WordIndex}, {@link CandidateCache} and lock, so providers of
+ * different types search at the same time and only pay for their own type. Indexes are built
+ * when their dataset changes, on the thread that publishes it (see {@link #createAppsIndex(List)}),
+ * so that searching never builds an index.
+ *
+ * Media is not here: there can be far more media files than we want to keep in memory,
+ * so they are searched in the full-text table of the media generator instead.
+ *
+ * Items keep the word starts of their own provider matcher (for example, apps are split
+ * by case as well), so results are the same as searching each list separately.
+ */
+public class SearchIndex {
+
+    private static final SearchIndex sInstance = new SearchIndex();
+
+    private static final WordMatcher sAppsMatcher = new WordMatcher(
+            new WordMatcher.NonLowerCaseSplitter()
+    );
+    private static final WordMatcher sMatcher = new WordMatcher();
+
+    private static final WordIndex.LabelProvider<App> APP_LABELS
+            = new WordIndex.LabelProvider<App>() {
+        @NonNull
+        @Override
+        public WordMatcher.Label getLabel(@NonNull App item, @NonNull WordMatcher matcher) {
+            return item.getPreparedLabel(sAppsMatcher);
+        }
+    };
+
+    /**
+     * Returns the shared instance.
+     * @return the index
+     */
+    @NonNull
+    public static SearchIndex getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Builds the index of the given apps, for {@link #setApps(WordIndex)}.
+     * Should be called when the apps change, off the query path.
+     * @param apps apps, in ranking order
+     * @return the apps index
+     */
+    @NonNull
+    public static WordIndex<App> createAppsIndex(@NonNull List<App> apps) {
+        return new WordIndex<>(apps, sMatcher, APP_LABELS);
+    }
+
+    /**
+     * Builds the index of the given shortcuts, for {@link #setShortcuts(WordIndex)}.
+     * Labels are loaded here, so this should be called off the main thread.
+     * @param context a context, used to load labels
+     * @param shortcuts shortcuts, in ranking order
+     * @return the shortcuts index
+     */
+    @NonNull
+    public static WordIndex<Shortcut> createShortcutsIndex(@NonNull Context context,
+                                                           @NonNull List<Shortcut> shortcuts) {
+        final Context appContext = context.getApplicationContext();
+        return new WordIndex<>(shortcuts, sMatcher, new WordIndex.LabelProvider<Shortcut>() {
+            @NonNull
+            @Override
+            public WordMatcher.Label getLabel(@NonNull Shortcut item,
+                                              @NonNull WordMatcher matcher) {
+                return item.getPreparedLabel(appContext, matcher);
+            }
+        }, false);
+    }
+
+    /**
+     * The index of a single type, with the matches of its latest queries.
+     * @param <T> item type
+     */
+    private static class TypeIndex<T> {
+        @Nullable private WordIndex<T> mIndex;
+        private final CandidateCache<T> mCandidates = new CandidateCache<>();
+
+        private synchronized void set(@NonNull WordIndex<T> index) {
+            mIndex = index;
+        }
+
+        @Nullable
+        private synchronized WordIndex<T> get() {
+            return mIndex;
+        }
+
+        @NonNull
+        private synchronized List<T> find(@NonNull String query) {
+            // The cache is invalidated when the index changes.
+            if (mIndex == null) return Collections.emptyList();
+            return mCandidates.get(query, mIndex);
+        }
+    }
+
+    private final TypeIndex<App> mApps = new TypeIndex<>();
+    private final TypeIndex<Contact> mContacts = new TypeIndex<>();
+    private final TypeIndex<Shortcut> mShortcuts = new TypeIndex<>();
+
+    @VisibleForTesting
+    SearchIndex() {}
+
+    /**
+     * Returns the matcher used for app labels, which also splits camel case words.
+     * @return the apps matcher
+     */
+    @NonNull
+    public WordMatcher getAppsMatcher() {
+        return sAppsMatcher;
+    }
+
+    /**
+     * Returns the matcher used for queries and shortcuts.
+     * @return the matcher
+     */
+    @NonNull
+    public WordMatcher getMatcher() {
+        return sMatcher;
+    }
+
+    /**
+     * Sets the apps index, built by {@link #createAppsIndex(List)}.
+     * @param apps apps index
+     */
+    public void setApps(@NonNull WordIndex<App> apps) {
+        mApps.set(apps);
+    }
+
+    /**
+     * Sets the contacts.
+     * @param contacts contacts index
+     */
+    public void setContacts(@NonNull ContactsIndex contacts) {
+        mContacts.set(contacts.getNames());
+    }
+
+    /**
+     * Sets the shortcuts index, built by {@link #createShortcutsIndex(Context, List)}.
+     * @param shortcuts shortcuts index
+     */
+    public void setShortcuts(@NonNull WordIndex<Shortcut> shortcuts) {
+        mShortcuts.set(shortcuts);
+    }
+
+    /**
+     * Returns all the apps matching the query, in ranking order, possibly refining
+     * the matches of the previous query. Only the apps index is locked.
+     *
+     * @param query the query
+     * @return an unmodifiable list of apps
+     */
+    @NonNull
+    public List<App> findApps(@NonNull String query) {
+        return mApps.find(query);
+    }
+
+    /**
+     * Same as {@link #findApps(String)}, for contacts.
+     *
+     * @param query the query
+     * @return an unmodifiable list of contacts
+     */
+    @NonNull
+    public List<Contact> findContacts(@NonNull String query) {
+        return mContacts.find(query);
+    }
+
+    /**
+     * Same as {@link #findApps(String)}, for shortcuts.
+     *
+     * @param query the query
+     * @return an unmodifiable list of shortcuts
+     */
+    @NonNull
+    public List<Shortcut> findShortcuts(@NonNull String query) {
+        return mShortcuts.find(query);
+    }
+
+    /**
+     * Returns the items of the given type that approximately match the query.
+     * Only the index of that type is walked.
+     * See {@link WordIndex#findFuzzy(String, int, int)}.
+     *
+     * @param query the query
+     * @param type the item type, one of App, Contact or Shortcut
+     * @param capacity max number of results
+     * @param <T> the item type
+     * @return a list of items, possibly empty
+     */
+    @NonNull
+    public <T> List<T> findFuzzy(@NonNull String query, @NonNull Class<T> type, int capacity) {
+        int distance = WordIndex.getFuzzyDistance(query);
+        if (distance == 0 || capacity <= 0) return Collections.emptyList();
+        WordIndex<?> index;
+        if (type == App.class) {
+            index = mApps.get();
+        } else if (type == Contact.class) {
+            index = mContacts.get();
+        } else if (type == Shortcut.class) {
+            index = mShortcuts.get();
+        } else {
+            throw new IllegalArgumentException("Unknown type: " + type);
+        }
+        if (index == null) return Collections.emptyList();
+        List<T> results = new ArrayList<>();
+        for (Object item : index.findFuzzy(query, distance, capacity)) {
+            results.add(type.cast(item));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,568 @@
+package io.branch.search.widget.index;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.branch.search.widget.util.WordMatcher;
+
+/**
+ * An immutable index that finds the items matching a query, with the same semantics
+ * of {@link WordMatcher#matches(String, String)}, without scanning the whole list.
+ * Items are indexed through their {@link WordMatcher.Label}, which are typically cached
+ * by the model objects, so building the index does no case conversion.
+ *
+ * The index is a sorted array of word starts. For each item we take the offsets returned by
+ * {@link WordMatcher#findWordStarts(String)} and sort all (item, offset) entries by the
+ * case-folded text that follows the offset. So "John Mark Smith" contributes three entries:
+ * "john mark smith", "mark smith" and "smith". All the entries that start with a given query
+ * are then contiguous and can be found with two binary searches.
+ *
+ * Results are returned in the same order of the list that was passed to the constructor,
+ * which is typically the ranking order of the DAO.
+ *
+ * The index is also a {@link CandidateCache.Source}, so that queries can be refined
+ * as the user keeps typing.
+ *
+ * Since the sorted entries are an implicit trie of the word starts, the index can also
+ * find typos with {@link #findFuzzy(String, int, int)}.
+ *
+ * The first keystrokes match the most items, so the first results for every 1 and 2
+ * characters prefix can be precomputed when the index is built. These queries are then
+ * a table lookup, unless they ask for more results than the table has, which falls back to
+ * the binary searches. Since the index is immutable and rebuilt when the dataset changes,
+ * so are the tables.
+ *
+ * @param <T> item type
+ */
+public class WordIndex<T> implements CandidateCache.Source<T> {
+
+    /**
+     * Provides the prepared label that should be indexed for a given item.
+     * Labels are typically prepared by the given matcher, but they can use other splitters
+     * since the index only looks at their word starts. They should be cached
+     * since this is also called when refining matches.
+     * @param <T> item type
+     */
+    public interface LabelProvider<T> {
+        @NonNull
+        WordMatcher.Label getLabel(@NonNull T item, @NonNull WordMatcher matcher);
+    }
+
+    private static final int FUZZY_MIN_LENGTH = 3;
+    private static final int FUZZY_TWO_EDITS_LENGTH = 6;
+    private static final int PREFIX_TABLE_LENGTH = 2;
+    // More than providers show, so that they only hit the table.
+    @VisibleForTesting static final int PREFIX_TABLE_CAPACITY = 64;
+
+    /**
+     * The first results of a prefix.
+     */
+    private static class Prefix<T> {
+        @NonNull private final List<T> mItems;
+        // Whether mItems has all the results.
+        private final boolean mComplete;
+
+        private Prefix(@NonNull List<T> items, boolean complete) {
+            mItems = items;
+            mComplete = complete;
+        }
+    }
+
+    @NonNull private final WordMatcher mMatcher;
+    @NonNull private final LabelProvider<T> mLabelProvider;
+    @NonNull private final List<T> mItems;
+    @NonNull private final char[][] mKeys;
+    @NonNull private final int[] mEntryItems;
+    @NonNull private final int[] mEntryOffsets;
+    @NonNull private final Map<String, Prefix<T>> mPrefixTable = new HashMap<>();
+
+    public WordIndex(@NonNull List<T> items,
+                     @NonNull WordMatcher matcher,
+                     @NonNull LabelProvider<T> labelProvider) {
+        this(items, matcher, labelProvider, true);
+    }
+
+    /**
+     * Creates a new index.
+     *
+     * @param items items, in ranking order
+     * @param matcher matcher used to prepare labels and compile queries
+     * @param labelProvider provides labels
+     * @param prefixTable whether to precompute the first results for 1 and 2 characters queries.
+     *                    Should be false if the index is never queried with them
+     */
+    public WordIndex(@NonNull List<T> items,
+                     @NonNull WordMatcher matcher,
+                     @NonNull LabelProvider<T> labelProvider,
+                     boolean prefixTable) {
+        mMatcher = matcher;
+        mLabelProvider = labelProvider;
+        mItems = new ArrayList<>(items);
+        mKeys = new char[mItems.size()][];
+        int[][] starts = new int[mItems.size()][];
+        int count = 0;
+        for (int i = 0; i < mItems.size(); i++) {
+            WordMatcher.Label label = labelProvider.getLabel(mItems.get(i), matcher);
+            mKeys[i] = label.getFoldedChars();
+            starts[i] = label.getWordStarts();
+            count += starts[i].length;
+        }
+
+        // Sort all entries by the text that follows each word start.
+        final int[] entryItems = new int[count];
+        final int[] entryOffsets = new int[count];
+        Integer[] order = new Integer[count];
+        for (int i = 0, entry = 0; i < starts.length; i++) {
+            for (int offset : starts[i]) {
+                entryItems[entry] = i;
+                entryOffsets[entry] = offset;
+                order[entry] = entry;
+                entry++;
+            }
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return compareEntries(entryItems[o1], entryOffsets[o1],
+                        entryItems[o2], entryOffsets[o2]);
+            }
+        });
+        mEntryItems = new int[count];
+        mEntryOffsets = new int[count];
+        for (int i = 0; i < count; i++) {
+            mEntryItems[i] = entryItems[order[i]];
+            mEntryOffsets[i] = entryOffsets[order[i]];
+        }
+        if (prefixTable) {
+            for (int length = 1; length <= PREFIX_TABLE_LENGTH; length++) {
+                buildPrefixTable(length);
+            }
+        }
+    }
+
+    /**
+     * Stores the first {@link #PREFIX_TABLE_CAPACITY} results of all the prefixes of the given
+     * length. Entries sharing a prefix are contiguous, so this is a single pass over the entries.
+     */
+    private void buildPrefixTable(int length) {
+        int from = 0;
+        while (from < mEntryItems.length) {
+            if (mKeys[mEntryItems[from]].length - mEntryOffsets[from] < length) {
+                from++;
+                continue;
+            }
+            char[] key = mKeys[mEntryItems[from]];
+            char[] prefix = Arrays.copyOfRange(key, mEntryOffsets[from],
+                    mEntryOffsets[from] + length);
+            int to = from + 1;
+            while (to < mEntryItems.length && comparePrefix(mEntryItems[to],
+                    mEntryOffsets[to], prefix) == 0) {
+                to++;
+            }
+            int[] hits = collectItems(from, to);
+            int count = Math.min(hits.length, PREFIX_TABLE_CAPACITY);
+            List<T> results = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                results.add(mItems.get(hits[i]));
+            }
+            mPrefixTable.put(new String(prefix), new Prefix<>(
+                    Collections.unmodifiableList(results), count == hits.length));
+            from = to;
+        }
+    }
+
+    /**
+     * Returns the number of indexed items.
+     * @return the size
+     */
+    public int size() {
+        return mItems.size();
+    }
+
+    /**
+     * Returns the items matching the given query, in the original order, up to
+     * the given capacity.
+     *
+     * @param query the query
+     * @param capacity max number of results
+     * @return a list of items, possibly empty
+     */
+    @NonNull
+    public List<T> find(@NonNull String query, int capacity) {
+        if (query.isEmpty() || capacity <= 0) return Collections.emptyList();
+        char[] folded = mMatcher.compile(query).getFoldedChars();
+        List<T> table = findInPrefixTable(folded, capacity);
+        if (table != null) {
+            return new ArrayList<>(table.subList(0, Math.min(capacity, table.size())));
+        }
+        int from = search(folded, false);
+        int to = search(folded, true);
+        if (from >= to) return Collections.emptyList();
+
+        List<T> results = new ArrayList<>();
+        for (int hit : collectItems(from, to)) {
+            results.add(mItems.get(hit));
+            if (results.size() == capacity) break;
+        }
+        return results;
+    }
+
+    /**
+     * Splits the given query into the tokens used by {@link #findTokens(String, int)}.
+     * Tokens are separated by any whitespace. Callers can check whether there is more than
+     * one before calling it.
+     *
+     * @param query the query
+     * @return the tokens, at least one, possibly empty
+     */
+    @NonNull
+    public static String[] getTokens(@NonNull String query) {
+        return query.trim().split("\\s+");
+    }
+
+    /**
+     * Returns the items that match all the whitespace separated tokens of the given query,
+     * in any order, up to the given capacity. So "smith john" and "john smith" both find
+     * "John Smith", while {@link #find(String, int)} only finds it for the latter.
+     * Each token must match a different word, see {@link WordMatcher#matchesAll}.
+     * Queries with a single token behave like {@link #find(String, int)}.
+     *
+     * Each token selects a range of the sorted entries, which is its posting list. The ranges
+     * are found with binary searches, then the items of the smallest one are checked against
+     * all the tokens, so that the cost is proportional to the shortest posting list.
+     *
+     * @param query the query
+     * @param capacity max number of results
+     * @return a list of items, in the original order, possibly empty
+     */
+    @NonNull
+    public List<T> findTokens(@NonNull String query, int capacity) {
+        String[] tokens = getTokens(query);
+        if (tokens.length == 1) return find(tokens[0], capacity);
+        if (capacity <= 0) return Collections.emptyList();
+
+        // Find the posting list of each token and keep the shortest.
+        WordMatcher.Query[] compiled = new WordMatcher.Query[tokens.length];
+        int shortestFrom = 0;
+        int shortestTo = Integer.MAX_VALUE;
+        for (int i = 0; i < tokens.length; i++) {
+            compiled[i] = mMatcher.compile(tokens[i]);
+            char[] folded = compiled[i].getFoldedChars();
+            int from = search(folded, false);
+            int to = search(folded, true);
+            if (from >= to) return Collections.emptyList();
+            if (to - from < shortestTo - shortestFrom) {
+                shortestFrom = from;
+                shortestTo = to;
+            }
+        }
+
+        List<T> results = new ArrayList<>();
+        for (int hit : collectItems(shortestFrom, shortestTo)) {
+            T item = mItems.get(hit);
+            WordMatcher.Label label = mLabelProvider.getLabel(item, mMatcher);
+            if (mMatcher.matchesAll(label, compiled)) {
+                results.add(item);
+                if (results.size() == capacity) break;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns the sorted, distinct items of the entries in [from, to).
+     */
+    @NonNull
+    private int[] collectItems(int from, int to) {
+        // The same item can be present more than once in the range, one for each word start.
+        // Sorting the item indices restores the original order and makes duplicates adjacent.
+        int[] hits = new int[to - from];
+        System.arraycopy(mEntryItems, from, hits, 0, hits.length);
+        Arrays.sort(hits);
+        int count = 0;
+        for (int i = 0; i < hits.length; i++) {
+            if (i == 0 || hits[i] != hits[i - 1]) {
+                hits[count++] = hits[i];
+            }
+        }
+        return Arrays.copyOf(hits, count);
+    }
+
+    /**
+     * Returns the max edit distance that {@link #findFuzzy(String, int, int)} should accept
+     * for the given query. Short queries have too many neighbors to be corrected.
+     *
+     * @param query the query
+     * @return the distance, or 0 if the query should not be corrected
+     */
+    public static int getFuzzyDistance(@NonNull String query) {
+        int length = query.length();
+        if (length < FUZZY_MIN_LENGTH) return 0;
+        return length < FUZZY_TWO_EDITS_LENGTH ? 1 : 2;
+    }
+
+    /**
+     * Returns the items that approximately match the given query, meaning that one of their
+     * words starts with a text whose edit distance from the query is at most maxDistance.
+     * Edits are insertions, deletions, substitutions and transpositions of adjacent characters,
+     * so "whatsap" finds "WhatsApp" and "jhon" finds "John".
+     *
+     * Items that match exactly (distance 0) are not returned, since they are already returned
+     * by {@link #find(String, int)}. The others are sorted by distance and then by the original
+     * order, up to the given capacity.
+     *
+     * This walks the implicit trie of the sorted entries, computing a row of the edit distance
+     * matrix for each trie node, and drops the branches where all values in the row exceed
+     * maxDistance. This is the same as running a Levenshtein automaton over the trie, and only
+     * visits a small part of the index.
+     *
+     * @param query the query
+     * @param maxDistance max edit distance, typically {@link #getFuzzyDistance(String)}
+     * @param capacity max number of results
+     * @return a list of items, possibly empty
+     */
+    @NonNull
+    public List<T> findFuzzy(@NonNull String query, int maxDistance, int capacity) {
+        if (query.isEmpty() || maxDistance <= 0 || capacity <= 0) {
+            return Collections.emptyList();
+        }
+        Fuzzy fuzzy = new Fuzzy(mMatcher.compile(query).getFoldedChars(), maxDistance);
+        fuzzy.walk(0, mEntryItems.length, 0);
+
+        // Exact matches (distance 0) are left to find().
+        List<T> results = new ArrayList<>();
+        for (int distance = 1; distance <= maxDistance; distance++) {
+            int[] items = fuzzy.hits[distance];
+            int count = fuzzy.hitCounts[distance];
+            Arrays.sort(items, 0, count); // Ranking order.
+            for (int i = 0; i < count; i++) {
+                int item = items[i];
+                // Skip items that were hit again later, with a lower distance.
+                if (fuzzy.distances[item] != distance) continue;
+                results.add(mItems.get(item));
+                if (results.size() == capacity) return results;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * State of a {@link #findFuzzy(String, int, int)} walk.
+     */
+    private class Fuzzy {
+        private final char[] query;
+        private final int maxDistance;
+        // rows[d] is the edit distance row after d characters of the trie path.
+        private final int[][] rows;
+        private final char[] path;
+        // Best distance of each item, maxDistance + 1 if it was not hit.
+        private final int[] distances;
+        // hits[d] has the items that had d as their best distance when they were hit,
+        // in its first hitCounts[d] values.
+        private final int[][] hits;
+        private final int[] hitCounts;
+
+        private Fuzzy(@NonNull char[] query, int maxDistance) {
+            this.query = query;
+            this.maxDistance = maxDistance;
+            int maxDepth = query.length + maxDistance;
+            rows = new int[maxDepth + 1][query.length + 1];
+            path = new char[maxDepth];
+            distances = new int[mItems.size()];
+            Arrays.fill(distances, maxDistance + 1);
+            hits = new int[maxDistance + 1][];
+            for (int d = 0; d <= maxDistance; d++) {
+                hits[d] = new int[8];
+            }
+            hitCounts = new int[maxDistance + 1];
+            for (int j = 0; j <= query.length; j++) {
+                rows[0][j] = j;
+            }
+        }
+
+        /**
+         * Visits the trie node at the given depth, made of the entries in [from, to)
+         * which share the first depth characters.
+         */
+        private void walk(int from, int to, int depth) {
+            int distance = rows[depth][query.length];
+            if (distance <= maxDistance) {
+                for (int i = from; i < to; i++) {
+                    int item = mEntryItems[i];
+                    if (distance < distances[item]) {
+                        distances[item] = distance;
+                        addHit(item, distance);
+                    }
+                }
+            }
+            if (depth == path.length) return;
+
+            // Entries that end here sort first. Skip them.
+            int child = from;
+            while (child < to && length(child) <= depth) child++;
+            while (child < to) {
+                char character = charAt(child, depth);
+                int end = searchChildEnd(child, to, depth, character);
+                path[depth] = character;
+                if (computeRow(depth + 1) <= maxDistance) {
+                    walk(child, end, depth + 1);
+                }
+                child = end;
+            }
+        }
+
+        private void addHit(int item, int distance) {
+            int[] items = hits[distance];
+            int count = hitCounts[distance];
+            if (count == items.length) {
+                items = Arrays.copyOf(items, count * 2);
+                hits[distance] = items;
+            }
+            items[count] = item;
+            hitCounts[distance] = count + 1;
+        }
+
+        /**
+         * Computes rows[depth] from the previous rows and the path, returning its minimum.
+         */
+        private int computeRow(int depth) {
+            int[] row = rows[depth];
+            int[] previous = rows[depth - 1];
+            char character = path[depth - 1];
+            row[0] = depth;
+            int min = depth;
+            for (int j = 1; j <= query.length; j++) {
+                int cost = query[j - 1] == character ? 0 : 1;
+                int value = Math.min(Math.min(previous[j] + 1, row[j - 1] + 1),
+                        previous[j - 1] + cost);
+                if (j > 1 && depth > 1
+                        && query[j - 1] == path[depth - 2]
+                        && query[j - 2] == character) {
+                    value = Math.min(value, rows[depth - 2][j - 2] + 1);
+                }
+                row[j] = value;
+                if (value < min) min = value;
+            }
+            return min;
+        }
+
+        /**
+         * Returns the first entry in [from, to) whose character at depth
+         * comes after the given one.
+         */
+        private int searchChildEnd(int from, int to, int depth, char character) {
+            int low = from;
+            int high = to;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (charAt(mid, depth) <= character) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private int length(int entry) {
+            return mKeys[mEntryItems[entry]].length - mEntryOffsets[entry];
+        }
+
+        private char charAt(int entry, int depth) {
+            return mKeys[mEntryItems[entry]][mEntryOffsets[entry] + depth];
+        }
+    }
+
+    @NonNull
+    @Override
+    public List<T> findAll(@NonNull String query) {
+        List<T> table = findInPrefixTable(mMatcher.compile(query).getFoldedChars(),
+                Integer.MAX_VALUE);
+        if (table != null) return table;
+        return find(query, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the precomputed results for the given query, or null if it is not
+     * in the table, either because it is too long or because it has no results,
+     * or if the table has less than the given capacity out of more results.
+     */
+    @Nullable
+    private List<T> findInPrefixTable(@NonNull char[] query, int capacity) {
+        if (query.length == 0 || query.length > PREFIX_TABLE_LENGTH) return null;
+        Prefix<T> prefix = mPrefixTable.get(new String(query));
+        if (prefix == null) return null;
+        if (!prefix.mComplete && capacity > prefix.mItems.size()) return null;
+        return prefix.mItems;
+    }
+
+    @NonNull
+    @Override
+    public List<T> refine(@NonNull List<T> candidates, @NonNull String query) {
+        WordMatcher.Query compiled = mMatcher.compile(query);
+        List<T> results = new ArrayList<>();
+        for (T item : candidates) {
+            if (mMatcher.matches(mLabelProvider.getLabel(item, mMatcher), compiled)) {
+                results.add(item);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Binary search over the sorted entries. Returns the index of the first entry
+     * whose text starts with the query (upper = false), or the index of the first
+     * entry that comes after all of them (upper = true).
+     */
+    private int search(@NonNull char[] query, boolean upper) {
+        int low = 0;
+        int high = mEntryItems.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int compare = comparePrefix(mEntryItems[mid], mEntryOffsets[mid], query);
+            if (compare < 0 || (upper && compare == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares the entry text with the query, considering them equal if the entry
+     * text starts with the query.
+     */
+    private int comparePrefix(int item, int offset, @NonNull char[] query) {
+        char[] key = mKeys[item];
+        int length = Math.min(key.length - offset, query.length);
+        for (int i = 0; i < length; i++) {
+            char c = key[offset + i];
+            if (c != query[i]) return c < query[i] ? -1 : 1;
+        }
+        return length == query.length ? 0 : -1;
+    }
+
+    private int compareEntries(int item1, int offset1, int item2, int offset2) {
+        char[] key1 = mKeys[item1];
+        char[] key2 = mKeys[item2];
+        int length1 = key1.length - offset1;
+        int length2 = key2.length - offset2;
+        int length = Math.min(length1, length2);
+        for (int i = 0; i < length; i++) {
+            char c1 = key1[offset1 + i];
+            char c2 = key2[offset2 + i];
+            if (c1 != c2) return c1 < c2 ? -1 : 1;
+        }
+        return length1 - length2;
+    }
+}
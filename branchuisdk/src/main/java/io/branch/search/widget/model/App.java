@@ -10,6 +10,7 @@ import android.os.Parcelable;
 import android.support.annotation.DrawableRes;
 import android.support.annotation.Keep;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
 
 import androidx.room.ColumnInfo;
@@ -19,6 +20,7 @@ import androidx.room.Ignore;
 import java.util.Objects;
 
 import io.branch.search.widget.database.DatabaseItem;
+import io.branch.search.widget.util.WordMatcher;
 
 /**
  * Represents an app (or an action/intent/activity) installed on the device.
@@ -42,6 +44,10 @@ public class App extends DatabaseItem implements Parcelable {
     @ColumnInfo(name = "popularity")
     private int mPopularity = -1;
 
+    @Ignore
+    @Nullable
+    private WordMatcher.Label mPreparedLabel;
+
     @Ignore
     public App(@NonNull String packageName, @NonNull String label) {
         this(packageName, label, 0);
@@ -89,6 +95,23 @@ public class App extends DatabaseItem implements Parcelable {
         return mLabel;
     }
 
+    /**
+     * Returns the label prepared by the given matcher. The result is cached,
+     * so that searches do not have to process the label every time.
+     * @param matcher a matcher
+     * @return the prepared label
+     */
+    @Ignore
+    @NonNull
+    public WordMatcher.Label getPreparedLabel(@NonNull WordMatcher matcher) {
+        WordMatcher.Label label = mPreparedLabel;
+        if (label == null || !label.isPreparedBy(matcher)) {
+            label = matcher.prepare(mLabel);
+            mPreparedLabel = label;
+        }
+        return label;
+    }
+
     @SuppressWarnings("unused")
     public int getIconResId() {
         return mIconResId;
@@ -102,6 +125,22 @@ public class App extends DatabaseItem implements Parcelable {
         return mPopularity;
     }
 
+    /**
+     * Returns a copy of this app with the given interactions. Apps in published lists
+     * can be read by many threads, so they are copied rather than changed.
+     * @param interactions the interactions of the copy
+     * @return a new app
+     */
+    @Ignore
+    @NonNull
+    public App withInteractions(int interactions) {
+        App app = new App(getId(), mPackageName, mLabel, mIconResId);
+        app.mPopularity = mPopularity;
+        app.mPreparedLabel = mPreparedLabel;
+        app.setInteractions(interactions);
+        return app;
+    }
+
     // Parcelable implementation
 
     @Override
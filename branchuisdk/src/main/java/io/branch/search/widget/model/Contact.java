@@ -15,6 +15,7 @@ import java.util.List;
 import java.util.Objects;
 
 import io.branch.search.widget.database.DatabaseItem;
+import io.branch.search.widget.util.WordMatcher;
 
 /**
  * Represents a contact.
@@ -35,6 +36,18 @@ public class Contact extends DatabaseItem implements Parcelable {
     @Nullable
     private String mFirstName = null;
 
+    @Ignore
+    @Nullable
+    private WordMatcher.Label mPreparedName;
+
+    @Ignore
+    @Nullable
+    private WordMatcher.Label mKeypadName;
+
+    @Ignore
+    @Nullable
+    private WordMatcher.Label mPreparedPhoneNumber;
+
     public Contact(int id, @NonNull String fullName) {
         super(id);
         mFullName = fullName;
@@ -52,6 +65,40 @@ public class Contact extends DatabaseItem implements Parcelable {
         return Arrays.asList(names);
     }
 
+    /**
+     * Returns the full name prepared by the given matcher. The result is cached,
+     * so that searches do not have to process the name every time.
+     * @param matcher a matcher
+     * @return the prepared name
+     */
+    @Ignore
+    @NonNull
+    public WordMatcher.Label getPreparedName(@NonNull WordMatcher matcher) {
+        WordMatcher.Label name = mPreparedName;
+        if (name == null || !name.isPreparedBy(matcher)) {
+            name = matcher.prepare(mFullName);
+            mPreparedName = name;
+        }
+        return name;
+    }
+
+    /**
+     * Returns the full name prepared by the given matcher for dial pad queries,
+     * as in {@link WordMatcher#prepareKeypad(String)}. The result is cached.
+     * @param matcher a matcher
+     * @return the prepared name
+     */
+    @Ignore
+    @NonNull
+    public WordMatcher.Label getKeypadName(@NonNull WordMatcher matcher) {
+        WordMatcher.Label name = mKeypadName;
+        if (name == null || !name.isPreparedBy(matcher)) {
+            name = matcher.prepareKeypad(mFullName);
+            mKeypadName = name;
+        }
+        return name;
+    }
+
     @Nullable
     public String getPhoneNumber() {
         return mPhoneNumber;
@@ -59,6 +106,25 @@ public class Contact extends DatabaseItem implements Parcelable {
 
     public void setPhoneNumber(@Nullable String phoneNumber) {
         mPhoneNumber = phoneNumber;
+        mPreparedPhoneNumber = null;
+    }
+
+    /**
+     * Returns the phone number prepared by the given matcher, as in
+     * {@link WordMatcher#preparePhoneNumber(String)}. Contacts with no number return
+     * an empty label. The result is cached.
+     * @param matcher a matcher
+     * @return the prepared number
+     */
+    @Ignore
+    @NonNull
+    public WordMatcher.Label getPreparedPhoneNumber(@NonNull WordMatcher matcher) {
+        WordMatcher.Label number = mPreparedPhoneNumber;
+        if (number == null || !number.isPreparedBy(matcher)) {
+            number = matcher.preparePhoneNumber(mPhoneNumber == null ? "" : mPhoneNumber);
+            mPreparedPhoneNumber = number;
+        }
+        return number;
     }
 
     @Nullable
@@ -70,6 +136,25 @@ public class Contact extends DatabaseItem implements Parcelable {
         mFirstName = firstName;
     }
 
+    /**
+     * Returns a copy of this contact with the given interactions. Contacts in published lists
+     * can be read by many threads, so they are copied rather than changed.
+     * @param interactions the interactions of the copy
+     * @return a new contact
+     */
+    @Ignore
+    @NonNull
+    public Contact withInteractions(int interactions) {
+        Contact contact = new Contact(getId(), mFullName);
+        contact.mPhoneNumber = mPhoneNumber;
+        contact.mFirstName = mFirstName;
+        contact.mPreparedName = mPreparedName;
+        contact.mKeypadName = mKeypadName;
+        contact.mPreparedPhoneNumber = mPreparedPhoneNumber;
+        contact.setInteractions(interactions);
+        return contact;
+    }
+
     // Other getters
 
     @Ignore
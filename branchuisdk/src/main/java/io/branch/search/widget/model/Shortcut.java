@@ -14,6 +14,7 @@ import android.support.v4.content.ContextCompat;
 import java.util.Objects;
 
 import io.branch.search.widget.R;
+import io.branch.search.widget.util.WordMatcher;
 
 /**
  * Represents a shortcut to a settings screen.
@@ -24,6 +25,7 @@ public class Shortcut implements Parcelable {
     @NonNull private final String mIntentAction;
     @StringRes private final int mLabelResId;
     @DrawableRes private final int mIconResId;
+    @Nullable private WordMatcher.Label mPreparedLabel;
 
     public Shortcut(@NonNull String intentAction, int labelResId) {
         this(intentAction, labelResId, R.drawable.branch_ic_settings_24dp);
@@ -54,6 +56,25 @@ public class Shortcut implements Parcelable {
         return context.getString(mLabelResId);
     }
 
+    /**
+     * Returns the label prepared by the given matcher. The result is cached
+     * until the label changes, for example because of a locale change.
+     * @param context a context
+     * @param matcher a matcher
+     * @return the prepared label
+     */
+    @NonNull
+    public WordMatcher.Label getPreparedLabel(@NonNull Context context,
+                                              @NonNull WordMatcher matcher) {
+        String text = getLabel(context);
+        WordMatcher.Label label = mPreparedLabel;
+        if (label == null || !label.isPreparedBy(matcher) || !label.getText().equals(text)) {
+            label = matcher.prepare(text);
+            mPreparedLabel = label;
+        }
+        return label;
+    }
+
 
     // Equals implementation
 
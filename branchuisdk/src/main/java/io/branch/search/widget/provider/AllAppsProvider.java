@@ -1,7 +1,5 @@
 package io.branch.search.widget.provider;
 
-import android.content.Context;
-import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.support.annotation.Keep;
 import android.support.annotation.NonNull;
@@ -10,15 +8,13 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import io.branch.search.widget.R;
 import io.branch.search.widget.model.App;
-import io.branch.search.widget.util.AppIconProvider;
 
 /**
  * Providers are instantiated by reflection.
@@ -32,11 +28,8 @@ public class AllAppsProvider extends BaseAppsProvider<DiscoveryViewModel<App>> {
     @SuppressWarnings("unused")
     private static final String TAG = "Branch::AllApps";
 
-    // Retrieving the drawable is very expensive. Not the AppIconProvider part, but the
-    // PackageManager one. So it's better to cache the icons here since we have a lot to show,
-    // potentially.
-    private final Map<String, Drawable> mIconCache = new HashMap<>();
-    private final AppIconProvider mIconProvider = new AppIconProvider();
+    // A few screens of icons. The others are loaded by the view holders while scrolling.
+    private static final int PRELOADED_ICONS = 48;
 
     @Nullable
     @Override
@@ -56,17 +49,9 @@ public class AllAppsProvider extends BaseAppsProvider<DiscoveryViewModel<App>> {
         // Could query DeviceAppsManager.getInstalledApps(context) and then loadLabel() for
         // each app, but we already have a SQL list of all apps in our database. Just use that
         // one so we avoid the expensive loadLabel() call.
-        List<App> list = getTopAppsList();
-        if (list == null) throw new RuntimeException();
-        // Cache the icons. Better here than in onBind(), as that would create
-        // a delay for the first scroll.
-        Context context = requireContext();
-        for (App item : list) {
-            if (!mIconCache.containsKey(item.getPackageName())) {
-                Drawable icon = mIconProvider.provideAppIcon(context, item.getIcon(context));
-                mIconCache.put(item.getPackageName(), icon);
-            }
-        }
+        List<App> apps = getTopAppsList();
+        if (apps == null) throw new RuntimeException();
+        List<App> list = new ArrayList<>(apps);
         // Just reorder alphabetically.
         Collections.sort(list, new Comparator<App>() {
             @Override
@@ -75,6 +60,9 @@ public class AllAppsProvider extends BaseAppsProvider<DiscoveryViewModel<App>> {
                         .compareTo(o2.getLabel().toLowerCase());
             }
         });
+        // Load the first icons here rather than when binding, as that would create
+        // a delay for the first scroll.
+        loadIcons(list.subList(0, Math.min(PRELOADED_ICONS, list.size())));
         return list;
     }
 
@@ -89,9 +77,4 @@ public class AllAppsProvider extends BaseAppsProvider<DiscoveryViewModel<App>> {
         return getResources().getDimensionPixelSize(R.dimen.branch_all_apps_vertical_margin);
     }
 
-    @Nullable
-    @Override
-    protected Object getAdapterItemPayload(@NonNull App item) {
-        return mIconCache.get(item.getPackageName());
-    }
 }
\ No newline at end of file
@@ -1,6 +1,5 @@
 package io.branch.search.widget.provider;
 
-import android.content.Context;
 import android.support.annotation.Keep;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -10,8 +9,9 @@ import java.util.List;
 
 import io.branch.referral.util.BranchEvent;
 import io.branch.search.widget.R;
+import io.branch.search.widget.index.SearchIndex;
+import io.branch.search.widget.index.WordIndex;
 import io.branch.search.widget.model.App;
-import io.branch.search.widget.util.AppIconProvider;
 import io.branch.search.widget.util.BranchEvents;
 import io.branch.search.widget.util.WordMatcher;
 
@@ -28,36 +28,65 @@ public class AppsProvider extends BaseAppsProvider<DiscoveryViewModel<App>> {
     @SuppressWarnings("unused")
     private static final String TAG = "Branch::Apps";
 
-    private final WordMatcher mWordMatcher = new WordMatcher(
-            new WordMatcher.NonLowerCaseSplitter()
-    );
-
-    private final AppIconProvider mIconProvider = new AppIconProvider();
+    private boolean mFuzzyMatching = false;
 
     @NonNull
     @Override
     protected List<App> loadResults(@NonNull String query, int token, int capacity) {
-        // Construct a list of candidates based on the search
-        List<App> apps = getTopAppsList();
+        // Find candidates through the shared index, which refines the matches
+        // of the previous query. Results respect the top apps order.
+        SearchIndex index = SearchIndex.getInstance();
+        if (!updateSearchIndex(index)) return new ArrayList<>();
+        List<App> matches = index.findApps(query);
+        WordMatcher matcher = index.getAppsMatcher();
+        WordMatcher.Query compiled = matcher.compile(query);
         List<App> list = new ArrayList<>();
-        if (apps != null && apps.size() > 0) {
-            for (App app : apps) {
-                if (mWordMatcher.matches(app.getLabel(), query)) {
-                    list.add(app);
-                }
-                if (app.getLabel().equalsIgnoreCase(query)) {
-                    notifyExactMatch(query, token);
-                }
+        boolean exactMatch = false;
+        for (App app : matches) {
+            list.add(app);
+            if (!exactMatch && app.getPreparedLabel(matcher).equalsText(compiled)) {
+                exactMatch = true;
+            }
 
-                // Don't bother if we already have max count.
-                if (list.size() == capacity) {
-                    break;
-                }
+            // Don't bother if we already have max count.
+            if (list.size() == capacity) {
+                break;
             }
         }
+        if (exactMatch) notifyExactMatch(query, token);
+
+        // Fill the remaining space with typo corrections, ranked below exact matches.
+        if (mFuzzyMatching && list.size() < capacity) {
+            list.addAll(index.findFuzzy(query, App.class, capacity - list.size()));
+        }
+        loadIcons(list);
         return list;
     }
 
+    /**
+     * Sets whether apps should also match queries with typos, like one or two
+     * wrong, missing, extra or swapped characters. Corrections are shown after the
+     * exact matches. Defaults to false.
+     *
+     * @param fuzzy true to enable
+     */
+    public void setFuzzyMatching(boolean fuzzy) {
+        mFuzzyMatching = fuzzy;
+    }
+
+    /**
+     * Passes the top apps index to the shared index. The apps index is built by
+     * the generator when the top apps list changes, so this never builds it.
+     * @param index the index
+     * @return false if top apps are not available
+     */
+    private boolean updateSearchIndex(@NonNull SearchIndex index) {
+        WordIndex<App> apps = getTopAppsIndex();
+        if (apps == null) return false;
+        index.setApps(apps);
+        return true;
+    }
+
     @Override
     protected void launchResult(@NonNull App item, @Nullable Object payload, int position) {
         super.launchResult(item, payload, position);
@@ -81,10 +110,4 @@ public class AppsProvider extends BaseAppsProvider<DiscoveryViewModel<App>> {
         return 2 * columns;
     }
 
-    @Nullable
-    @Override
-    protected Object getAdapterItemPayload(@NonNull App item) {
-        Context context = requireContext();
-        return mIconProvider.provideAppIcon(context, item.getIcon(context));
-    }
 }
\ No newline at end of file
@@ -2,7 +2,8 @@ package io.branch.search.widget.provider;
 
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
@@ -14,16 +15,24 @@ import java.util.List;
 
 import io.branch.search.widget.R;
 import io.branch.search.widget.generator.AppsGenerator;
+import io.branch.search.widget.generator.ReindexScheduler;
+import io.branch.search.widget.generator.Snapshot;
+import io.branch.search.widget.index.WordIndex;
 import io.branch.search.widget.model.App;
 import io.branch.search.widget.ui.AppViewHolder;
 import io.branch.search.widget.ui.DiscoveryViewHolder;
+import io.branch.search.widget.util.AppIconCache;
+import io.branch.search.widget.util.PackageRegistry;
 
 /**
  * Base class for providers of apps. Offers:
  * <p>
  * - a list of top apps, which is used by various providers. {@link #getTopAppsList()},
+ * {@link #getTopAppsSnapshot()}, {@link #getTopAppsIndex()}, {@link #getTopAppsVersion()},
  * {@link #addTopApp(App)}
  * - implementation of {@link #launchResult(App, Object, int)} to launch an app
+ * - icons for the results, loaded by {@link #loadIcons(List)} on the loading thread and
+ *   passed to the view holders as payloads. Icons are kept in the shared {@link AppIconCache}
  */
 public abstract class BaseAppsProvider<VM extends DiscoveryViewModel<App>>
         extends SimpleDiscoveryProvider<App, VM> {
@@ -32,6 +41,7 @@ public abstract class BaseAppsProvider<VM extends DiscoveryViewModel<App>>
 
     /**
      * Gets a list of top apps from {@link AppsGenerator}.
+     * The list can't be modified.
      *
      * @return a list of top apps, or null if not available
      */
@@ -42,6 +52,41 @@ public abstract class BaseAppsProvider<VM extends DiscoveryViewModel<App>>
         return mAppsGenerator.get(context);
     }
 
+    /**
+     * Gets the top apps from {@link AppsGenerator}, together with their version.
+     *
+     * @return a snapshot of top apps, or null if not available
+     */
+    @Nullable
+    protected final Snapshot<App> getTopAppsSnapshot() {
+        Context context = getContext();
+        if (context == null) return null;
+        return mAppsGenerator.getSnapshot(context);
+    }
+
+    /**
+     * Gets the search index of the top apps from {@link AppsGenerator}, which is built
+     * when the list changes. Should be called from background threads.
+     *
+     * @return the top apps index, or null if not available
+     */
+    @Nullable
+    protected final WordIndex<App> getTopAppsIndex() {
+        Context context = getContext();
+        if (context == null) return null;
+        return mAppsGenerator.getIndex(context);
+    }
+
+    /**
+     * Returns a number that changes every time the list returned by {@link #getTopAppsList()}
+     * changes. Can be used to invalidate data that was computed out of that list.
+     *
+     * @return the top apps version
+     */
+    protected final int getTopAppsVersion() {
+        return mAppsGenerator.getVersion();
+    }
+
     /**
      * Registers a new top app. Only the package name matters.
      *
@@ -53,13 +98,35 @@ public abstract class BaseAppsProvider<VM extends DiscoveryViewModel<App>>
         mAppsGenerator.add(context, appItem);
     }
 
+    /**
+     * Loads the icons of the given apps into {@link AppIconCache}, unless they are there
+     * already. Retrieving an icon is very expensive, and is PackageManager IPC, so it should
+     * never happen while binding. Should be called from
+     * {@link #loadResults(String, int, int)} with the results, which runs on a background
+     * thread, so that {@link #getAdapterItemPayload(App)} has the icons ready.
+     * Only loads as many icons as the cache can hold, so apps should be passed
+     * in the order they are shown.
+     *
+     * @param apps the apps to be shown
+     */
+    protected final void loadIcons(@NonNull List<App> apps) {
+        Context context = getContext();
+        if (context == null) return;
+        AppIconCache cache = AppIconCache.getInstance(context);
+        // Icons past the cache size would evict the first ones. Those are loaded when bound.
+        int count = Math.min(apps.size(), cache.getMaxCount());
+        for (int i = 0; i < count; i++) {
+            cache.get(apps.get(i).getPackageName());
+        }
+    }
+
     @Override
     protected void launchResult(@NonNull App item, @Nullable Object payload, int position) {
-        PackageManager packageManager = requireContext().getPackageManager();
+        PackageRegistry registry = PackageRegistry.getInstance(requireContext());
         String packageName = item.getPackageName();
         if (!TextUtils.isEmpty(packageName)) {
             addTopApp(item);
-            Intent intent = packageManager.getLaunchIntentForPackage(packageName);
+            Intent intent = registry.getLaunchIntent(packageName);
             if (intent != null) {
                 startActivity(intent);
             }
@@ -71,6 +138,16 @@ public abstract class BaseAppsProvider<VM extends DiscoveryViewModel<App>>
         return getResources().getDimensionPixelSize(R.dimen.branch_apps_spacing);
     }
 
+    /**
+     * Returns the icon loaded by {@link #loadIcons(List)}.
+     */
+    @Nullable
+    @Override
+    protected Object getAdapterItemPayload(@NonNull App item) {
+        Bitmap icon = AppIconCache.getInstance(requireContext()).peek(item.getPackageName());
+        return icon == null ? null : new BitmapDrawable(getResources(), icon);
+    }
+
     @Override
     protected DiscoveryViewHolder<App> createAdapterViewHolder(
             @NonNull LayoutInflater inflater,
@@ -88,6 +165,28 @@ public abstract class BaseAppsProvider<VM extends DiscoveryViewModel<App>>
         section.setAutoColumns(R.layout.branch_app);
     }
 
+    @Override
+    public boolean initialize(@NonNull Context context,
+                              @NonNull IDiscoveryProviderCallback callback,
+                              @Nullable Object payload) {
+        if (super.initialize(context, callback, payload)) {
+            // Sync now, so that the first query doesn't have to.
+            ReindexScheduler.refresh(context, mAppsGenerator);
+            ReindexScheduler.schedule(context);
+            // Same for the icons of the top apps.
+            AppIconCache.getInstance(context).prefetch();
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        mAppsGenerator.flush();
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
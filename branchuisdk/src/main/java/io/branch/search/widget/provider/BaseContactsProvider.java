@@ -16,6 +16,8 @@ import java.util.List;
 import io.branch.referral.util.BranchEvent;
 import io.branch.search.widget.R;
 import io.branch.search.widget.generator.ContactsGenerator;
+import io.branch.search.widget.generator.ReindexScheduler;
+import io.branch.search.widget.index.ContactsIndex;
 import io.branch.search.widget.model.Contact;
 import io.branch.search.widget.ui.ContactViewHolder;
 import io.branch.search.widget.ui.DiscoveryViewHolder;
@@ -24,7 +26,8 @@ import io.branch.search.widget.util.BranchEvents;
 /**
  * Base class for providers of contacts. Offers:
  * <p>
- * - a list of top contacts. {@link #getTopContactsList()}, {@link #addTopContact(Contact)}
+ * - a list of top contacts. {@link #getTopContactsList()}, {@link #getTopContactsVersion()},
+ *   {@link #getTopContactsIndex()}, {@link #addTopContact(Contact)}
  * - implementation of {@link #launchResult(Contact, Object, int)} to launch a contact
  * - methods to send a message or call a contact
  */
@@ -43,6 +46,7 @@ public abstract class BaseContactsProvider<VM extends DiscoveryViewModel<Contact
 
     /**
      * Gets a list of top contacts from {@link ContactsGenerator}.
+     * The list can't be modified.
      *
      * @return a list of top contacts, or null if not available
      */
@@ -53,6 +57,44 @@ public abstract class BaseContactsProvider<VM extends DiscoveryViewModel<Contact
         return mContactsGenerator.get(context);
     }
 
+    /**
+     * Gets the search indexes of the top contacts from {@link ContactsGenerator}.
+     *
+     * @return the index of top contacts, or null if not available
+     */
+    @Nullable
+    protected final ContactsIndex getTopContactsIndex() {
+        Context context = getContext();
+        if (context == null) return null;
+        return mContactsGenerator.getIndex(context);
+    }
+
+    /**
+     * Searches the top contacts in the database through {@link ContactsGenerator}, without
+     * loading the whole list in memory. Results have the same order as the top contacts list.
+     *
+     * @param query the query
+     * @param limit max number of results
+     * @return a list of contacts, or null if not available
+     */
+    @Nullable
+    protected final List<Contact> searchTopContacts(@NonNull String query, int limit) {
+        Context context = getContext();
+        if (context == null) return null;
+        return mContactsGenerator.search(context, query, limit);
+    }
+
+    /**
+     * Returns a number that changes every time the list returned by
+     * {@link #getTopContactsList()} changes. Can be used to invalidate data that was
+     * computed out of that list.
+     *
+     * @return the top contacts version
+     */
+    protected final int getTopContactsVersion() {
+        return mContactsGenerator.getVersion();
+    }
+
     /**
      * Registers a new top contact.
      *
@@ -64,6 +106,26 @@ public abstract class BaseContactsProvider<VM extends DiscoveryViewModel<Contact
         mContactsGenerator.add(context, contact);
     }
 
+    @Override
+    public boolean initialize(@NonNull Context context,
+                              @NonNull IDiscoveryProviderCallback callback,
+                              @Nullable Object payload) {
+        if (super.initialize(context, callback, payload)) {
+            // Sync now, so that the first query doesn't have to.
+            ReindexScheduler.refresh(context, mContactsGenerator);
+            ReindexScheduler.schedule(context);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        mContactsGenerator.flush();
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -8,6 +8,9 @@ import java.util.ArrayList;
 import java.util.List;
 
 import io.branch.search.widget.R;
+import io.branch.search.widget.index.ContactsIndex;
+import io.branch.search.widget.index.SearchIndex;
+import io.branch.search.widget.index.WordIndex;
 import io.branch.search.widget.model.Contact;
 import io.branch.search.widget.util.WordMatcher;
 
@@ -25,33 +28,128 @@ public class ContactsProvider
 
     private WordMatcher mWordMatcher = new WordMatcher();
 
+    private boolean mFuzzyMatching = false;
+    private boolean mKeypadMatching = false;
+    private boolean mDatabaseSearch = false;
+
     @NonNull
     @Override
     protected List<Contact> loadResults(@NonNull String query, int token, int capacity) {
-        // Construct a list of candidates based on the search
-        List<Contact> contacts = getTopContactsList();
+        if (mDatabaseSearch) return loadDatabaseResults(query, token, capacity);
+
+        // Find candidates through the shared index, which refines the matches
+        // of the previous query. Results respect the top contacts order.
+        ContactsIndex index = getTopContactsIndex();
+        if (index == null) return new ArrayList<>();
+        SearchIndex search = SearchIndex.getInstance();
+        search.setContacts(index);
+        List<Contact> matches = search.findContacts(query);
+        WordIndex<Contact> names = index.getNames();
+        WordMatcher.Query compiled = index.getMatcher().compile(query);
         List<Contact> list = new ArrayList<>();
-        if (contacts != null && contacts.size() > 0) {
-            for (Contact contact : contacts) {
-                if (mWordMatcher.matches(contact.getFullName(), query)) {
-                    list.add(contact);
-                }
-                // Check exact match.
-                for (String displayName : contact.getNames()) {
-                    if (displayName.equalsIgnoreCase(query)) {
-                        notifyExactMatch(query, token);
-                    }
-                }
-
-                // Don't bother if we already have max count.
-                if (list.size() == capacity) {
-                    break;
-                }
+        boolean exactMatch = false;
+        for (Contact contact : matches) {
+            list.add(contact);
+            // Check exact match with any of the names, until we find one.
+            if (!exactMatch
+                    && contact.getPreparedName(index.getMatcher()).containsWord(compiled)) {
+                exactMatch = true;
+            }
+
+            // Don't bother if we already have max count.
+            if (list.size() == capacity) {
+                break;
             }
         }
+        if (exactMatch) notifyExactMatch(query, token);
+
+        // Match the words of the query in any order, so "smith john" finds "John Smith".
+        if (WordIndex.getTokens(query).length > 1) {
+            addAll(list, names.findTokens(query, capacity), capacity);
+        }
+
+        // Digit queries might have been typed on a dial pad.
+        if (mKeypadMatching && WordMatcher.isKeypadQuery(query)) {
+            addAll(list, index.getKeypadNames().find(query, capacity), capacity);
+        }
+
+        // Digit queries might also be part of a phone number.
+        addAll(list, index.findByPhoneNumber(query, capacity), capacity);
+
+        // Fill the remaining space with typo corrections, ranked below exact matches.
+        int distance = WordIndex.getFuzzyDistance(query);
+        if (mFuzzyMatching && distance > 0 && list.size() < capacity) {
+            addAll(list, names.findFuzzy(query, distance, capacity), capacity);
+        }
         return list;
     }
 
+    /**
+     * Same as {@link #loadResults(String, int, int)}, but searches the names in the database
+     * instead of the in-memory indexes. Words of the query can match in any order.
+     */
+    @NonNull
+    private List<Contact> loadDatabaseResults(@NonNull String query, int token, int capacity) {
+        List<Contact> list = searchTopContacts(query, capacity);
+        if (list == null) return new ArrayList<>();
+        WordMatcher.Query compiled = mWordMatcher.compile(query);
+        for (Contact contact : list) {
+            // Check exact match with any of the names.
+            if (contact.getPreparedName(mWordMatcher).containsWord(compiled)) {
+                notifyExactMatch(query, token);
+                break;
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Adds the given contacts to the list, skipping duplicates, up to capacity.
+     */
+    private static void addAll(@NonNull List<Contact> list,
+                               @NonNull List<Contact> contacts,
+                               int capacity) {
+        for (Contact contact : contacts) {
+            if (list.size() == capacity) return;
+            if (!list.contains(contact)) {
+                list.add(contact);
+            }
+        }
+    }
+
+    /**
+     * Sets whether contacts should also match queries with typos, like one or two
+     * wrong, missing, extra or swapped characters. Corrections are shown after the
+     * exact matches. Defaults to false.
+     *
+     * @param fuzzy true to enable
+     */
+    public void setFuzzyMatching(boolean fuzzy) {
+        mFuzzyMatching = fuzzy;
+    }
+
+    /**
+     * Sets whether digit queries should also match contact names as typed on a dial pad,
+     * so that "5646" finds "John". Defaults to false.
+     *
+     * @param keypad true to enable
+     */
+    public void setKeypadMatching(boolean keypad) {
+        mKeypadMatching = keypad;
+    }
+
+    /**
+     * Sets whether contact names should be searched in the database instead of in memory.
+     * Each query is a database lookup, but the contacts list is never held in memory, which
+     * is better for low memory devices with many contacts. Keypad, phone number and fuzzy
+     * matching are not available in this mode. Defaults to false.
+     *
+     * @param database true to enable
+     */
+    public void setDatabaseSearch(boolean database) {
+        mDatabaseSearch = database;
+    }
+
     @Nullable
     @Override
     protected CharSequence getAdapterHeader() {
@@ -1,10 +1,8 @@
 package io.branch.search.widget.provider;
 
 import android.content.Context;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
 import android.location.Location;
+import android.os.AsyncTask;
 import android.support.annotation.Keep;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -19,9 +17,7 @@ import com.google.android.gms.tasks.Tasks;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
 import io.branch.referral.util.BranchEvent;
@@ -42,7 +38,7 @@ import io.branch.search.widget.ui.InAppLinkViewHolder;
 import io.branch.search.widget.ui.InAppFilterViewHolder;
 import io.branch.search.widget.util.BranchEvents;
 import io.branch.search.widget.generator.AppsGenerator;
-import io.branch.search.widget.util.DeviceAppsManager;
+import io.branch.search.widget.util.PackageRegistry;
 
 /**
  * Providers are instantiated by reflection.
@@ -73,7 +69,6 @@ public class InAppSearchProvider extends BaseBranchProvider<Object,
     }
 
     private boolean mShowNonInstalledAppResults = true;
-    private Set<String> mInstalledApps;
     private Options mOptions = new Options();
     private BranchAppResult mFilter = null;
 
@@ -111,14 +106,7 @@ public class InAppSearchProvider extends BaseBranchProvider<Object,
     }
 
     private boolean isAppInstalled(@NonNull BranchAppResult result) {
-        if (mInstalledApps == null || DeviceAppsManager.isDirty(requireContext())) {
-            List<ResolveInfo> apps = DeviceAppsManager.getInstalledApps(requireContext());
-            mInstalledApps = new HashSet<>();
-            for (ResolveInfo app : apps) {
-                mInstalledApps.add(app.activityInfo.applicationInfo.packageName);
-            }
-        }
-        return mInstalledApps.contains(result.getPackageName());
+        return PackageRegistry.getInstance(requireContext()).isInstalled(result.getPackageName());
     }
 
     @Override
@@ -133,6 +121,8 @@ public class InAppSearchProvider extends BaseBranchProvider<Object,
     @NonNull
     @Override
     protected List<Object> loadResults(@NonNull final String query, int token, int capacity) {
+        // Load the registry here, rather than when binding the first result.
+        PackageRegistry.getInstance(requireContext());
         final TaskCompletionSource<List<Object>> source = new TaskCompletionSource<>();
         BranchSearchRequest request = createSearchRequest(query);
         request.setMaxAppResults(mOptions.maxAppResults);
@@ -173,20 +163,7 @@ public class InAppSearchProvider extends BaseBranchProvider<Object,
         Context context = requireContext();
         if (item instanceof BranchAppResult) {
             BranchAppResult appResult = (BranchAppResult) item;
-            String appPackage = appResult.getPackageName();
-            // If installed, add the app to top-apps
-            if (DeviceAppsManager.isPackageInstalled(context, appPackage)) {
-                try {
-                    ApplicationInfo appInfo = context
-                            .getPackageManager()
-                            .getApplicationInfo(appPackage, 0);
-                    String appLabel = appInfo.loadLabel(context.getPackageManager()).toString();
-                    App appItem = new App(appResult.getPackageName(), appLabel);
-                    AppsGenerator generator = new AppsGenerator();
-                    generator.add(context, appItem);
-                    generator.release();
-                } catch (PackageManager.NameNotFoundException ignore) {}
-            }
+            addTopApp(context, appResult.getPackageName());
             // Launch
             appResult.openSearchDeepLink(context, true);
         } else if (item instanceof BranchLinkResult) {
@@ -210,6 +187,26 @@ public class InAppSearchProvider extends BaseBranchProvider<Object,
         }
     }
 
+    /**
+     * If installed, adds the app to top-apps. Loading the label and writing to the
+     * generator are done on a background thread, so the launch is not delayed.
+     */
+    private static void addTopApp(@NonNull Context context, @NonNull final String appPackage) {
+        final Context appContext = context.getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                String appLabel = PackageRegistry.getInstance(appContext).getLabel(appPackage);
+                if (appLabel != null) {
+                    App appItem = new App(appPackage, appLabel);
+                    AppsGenerator generator = new AppsGenerator();
+                    generator.add(appContext, appItem);
+                    generator.release();
+                }
+            }
+        });
+    }
+
     /**
      * Invalidate our sections anytime there are new results, since our sections depend
      * on the result that we have been loading.
@@ -4,6 +4,7 @@ import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.support.annotation.Keep;
 import android.support.annotation.NonNull;
@@ -15,14 +16,16 @@ import android.view.ViewGroup;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 
 import io.branch.referral.util.BranchEvent;
 import io.branch.search.widget.R;
+import io.branch.search.widget.index.SearchIndex;
+import io.branch.search.widget.index.WordIndex;
 import io.branch.search.widget.model.Shortcut;
 import io.branch.search.widget.ui.DiscoveryViewHolder;
 import io.branch.search.widget.ui.ShortcutViewHolder;
 import io.branch.search.widget.util.BranchEvents;
-import io.branch.search.widget.util.WordMatcher;
 
 import static android.provider.Settings.*;
 
@@ -40,6 +43,8 @@ public class ShortcutProvider
     private static final int NUM_COLUMNS = 2;
 
     private static List<Shortcut> sShortcuts;
+    private static WordIndex<Shortcut> sShortcutsIndex;
+    private static Locale sShortcutsLocale;
     private static final List<Shortcut> ALL_SHORTCUTS;
     static {
         ArrayList<Shortcut> items = new ArrayList<>(Arrays.asList(
@@ -153,44 +158,72 @@ public class ShortcutProvider
         ALL_SHORTCUTS = items;
     }
 
-    private final WordMatcher mWordMatcher = new WordMatcher();
-
     @Override
     public boolean initialize(@NonNull Context context,
                               @NonNull IDiscoveryProviderCallback callback,
                               @Nullable Object payload) {
         if (super.initialize(context, callback, payload)) {
-            if (sShortcuts == null) {
-                // We want to filter out the ALL_SHORTCUTS that can not be handled by any activity.
-                // For this we need a PackageManager so it must be done here with a context handle.
-                PackageManager manager = context.getPackageManager();
-                ArrayList<Shortcut> results = new ArrayList<>();
-                for (Shortcut item : ALL_SHORTCUTS) {
-                    if (new Intent(item.getIntentAction()).resolveActivity(manager) != null) {
-                        results.add(item);
-                    } else {
-                        Log.d(TAG, "Dropping shortcut " + item.getIntentAction()
-                                + " because it does not resolve to any activity.");
-                    }
+            // Resolve now on a background thread, so that the first query doesn't have to.
+            final Context appContext = context.getApplicationContext();
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    getShortcutsIndex(appContext);
                 }
-                sShortcuts = results;
-            }
+            });
             return true;
         }
         return false;
     }
 
+    /**
+     * Returns the shortcuts that can be handled by some activity. They are resolved
+     * through PackageManager on the first call, so this should not be called on the
+     * main thread. Other callers wait for the first one to finish.
+     */
     @NonNull
-    @Override
-    protected List<Shortcut> loadResults(@NonNull String query, int token, int capacity) {
-        Context context = requireContext();
-        ArrayList<Shortcut> results = new ArrayList<>();
-        for (Shortcut item : sShortcuts) {
-            if (mWordMatcher.matches(item.getLabel(context), query)) {
-                results.add(item);
+    private static synchronized List<Shortcut> getShortcuts(@NonNull Context context) {
+        if (sShortcuts == null) {
+            // We want to filter out the ALL_SHORTCUTS that can not be handled by any activity.
+            // For this we need a PackageManager so it can not be done statically.
+            PackageManager manager = context.getPackageManager();
+            ArrayList<Shortcut> results = new ArrayList<>();
+            for (Shortcut item : ALL_SHORTCUTS) {
+                if (new Intent(item.getIntentAction()).resolveActivity(manager) != null) {
+                    results.add(item);
+                } else {
+                    Log.d(TAG, "Dropping shortcut " + item.getIntentAction()
+                            + " because it does not resolve to any activity.");
+                }
             }
+            sShortcuts = results;
+        }
+        return sShortcuts;
+    }
+
+    /**
+     * Returns the index of {@link #getShortcuts(Context)}. Labels depend on the locale,
+     * so the index is built again if it changed. Same threading as
+     * {@link #getShortcuts(Context)}.
+     */
+    @NonNull
+    private static synchronized WordIndex<Shortcut> getShortcutsIndex(
+            @NonNull Context context) {
+        Locale locale = Locale.getDefault();
+        if (sShortcutsIndex == null || !locale.equals(sShortcutsLocale)) {
+            sShortcutsIndex = SearchIndex.createShortcutsIndex(context, getShortcuts(context));
+            sShortcutsLocale = locale;
         }
-        return results;
+        return sShortcutsIndex;
+    }
+
+    @NonNull
+    @Override
+    protected List<Shortcut> loadResults(@NonNull String query, int token, int capacity) {
+        // Use the shared index, which refines the matches of the previous query.
+        SearchIndex index = SearchIndex.getInstance();
+        index.setShortcuts(getShortcutsIndex(requireContext()));
+        return new ArrayList<>(index.findShortcuts(query));
     }
 
     @Override
@@ -1,6 +1,5 @@
 package io.branch.search.widget.provider;
 
-import android.content.Context;
 import android.support.annotation.Keep;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -10,7 +9,6 @@ import java.util.List;
 
 import io.branch.referral.util.BranchEvent;
 import io.branch.search.widget.model.App;
-import io.branch.search.widget.util.AppIconProvider;
 import io.branch.search.widget.util.BranchEvents;
 
 /**
@@ -26,7 +24,6 @@ import io.branch.search.widget.util.BranchEvents;
 @SuppressWarnings("unused")
 public class SuggestedAppsProvider extends BaseAppsProvider<DiscoveryViewModel<App>> {
     private static final String TAG = "Branch::Apps";
-    private final AppIconProvider mIconProvider = new AppIconProvider();
 
     /**
      * We only accept empty queries, so this is inverted.
@@ -41,6 +38,8 @@ public class SuggestedAppsProvider extends BaseAppsProvider<DiscoveryViewModel<A
     protected List<App> loadResults(@NonNull String query, int token, int capacity) {
         List<App> results = getTopAppsList();
         if (results == null) throw new RuntimeException("No results.");
+        // Only the first apps are shown, so there's no need to load all icons.
+        loadIcons(results.subList(0, Math.min(capacity, results.size())));
         return results;
     }
 
@@ -67,10 +66,4 @@ public class SuggestedAppsProvider extends BaseAppsProvider<DiscoveryViewModel<A
         return columns; // = 1 row
     }
 
-    @Nullable
-    @Override
-    protected Object getAdapterItemPayload(@NonNull App item) {
-        Context context = requireContext();
-        return mIconProvider.provideAppIcon(context, item.getIcon(context));
-    }
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package io.branch.search.widget.ui;
 
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -10,9 +12,12 @@ import android.widget.TextView;
 
 import io.branch.search.widget.R;
 import io.branch.search.widget.model.App;
+import io.branch.search.widget.util.AppIconCache;
 
 /**
  * Shows app results (icon + label) from {@link App}s.
+ * The icon is expected as a {@link Drawable} payload. If there is none, it is loaded
+ * through {@link AppIconCache} and shown when ready.
  */
 public class AppViewHolder extends DiscoveryViewHolder<App> {
 
@@ -20,6 +25,9 @@ public class AppViewHolder extends DiscoveryViewHolder<App> {
     private final ImageView mIcon;
     @NonNull
     private final TextView mLabel;
+    // The package of the last bind, so that we don't show icons loaded for previous ones.
+    @Nullable
+    private String mPackageName;
 
     public AppViewHolder(@NonNull LayoutInflater inflater,
                          @NonNull ViewGroup parent,
@@ -31,13 +39,27 @@ public class AppViewHolder extends DiscoveryViewHolder<App> {
 
     @Override
     protected void onBind(@NonNull App model, @NonNull String query, @Nullable Object payload) {
-        Drawable drawable;
+        mPackageName = model.getPackageName();
+        mLabel.setText(model.getLabel());
         if (payload instanceof Drawable) {
-            drawable = (Drawable) payload;
+            mIcon.setImageDrawable((Drawable) payload);
+        } else if (model.getIconResId() != 0) {
+            // Our own resource, cheap to load.
+            mIcon.setImageDrawable(model.getIcon(getContext()));
         } else {
-            drawable = model.getIcon(getContext());
+            // Loading from PackageManager is IPC, so never do it here. Leave the icon
+            // empty until the cache has it.
+            mIcon.setImageDrawable(null);
+            AppIconCache.getInstance(getContext()).load(mPackageName,
+                    new AppIconCache.Callback() {
+                @Override
+                public void onIconLoaded(@NonNull String packageName, @Nullable Bitmap icon) {
+                    if (icon != null && packageName.equals(mPackageName)) {
+                        mIcon.setImageDrawable(new BitmapDrawable(
+                                getContext().getResources(), icon));
+                    }
+                }
+            });
         }
-        mIcon.setImageDrawable(drawable);
-        mLabel.setText(model.getLabel());
     }
 }
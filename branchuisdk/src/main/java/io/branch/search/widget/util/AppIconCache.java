@@ -0,0 +1,380 @@
+package io.branch.search.widget.util;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.StrictMode;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.branch.search.widget.R;
+import io.branch.search.widget.generator.AppsGenerator;
+import io.branch.search.widget.model.App;
+
+/**
+ * A process-wide cache of app icons, shared by all apps providers.
+ *
+ * Icons are wrapped by {@link AppIconProvider}, then drawn into bitmaps of the app icon size,
+ * so that they are cheap to keep and to draw. There are two levels:
+ * - a memory LRU, bounded by the bitmaps size in bytes
+ * - a disk cache, in the cache directory, so that a new process doesn't have to load
+ *   icons from PackageManager again
+ *
+ * Both are keyed by package name and last update time, so an updated app gets its new icon.
+ * {@link #prefetch()} warms the cache with the top apps, which should be done when providers
+ * are initialized, so that the first query finds the icons ready.
+ */
+public class AppIconCache {
+
+    private static final String TAG = "Branch::Icons";
+    private static final String DIRECTORY = "branch_icons";
+    private static final String EXTENSION = ".png";
+    private static final char SEPARATOR = '@'; // Not allowed in package names.
+
+    // Enough for the suggested apps and the first screen of all apps.
+    private static final int PREFETCH_COUNT = 24;
+
+    private static AppIconCache sInstance;
+
+    /**
+     * Returns the cache, creating it on the first call.
+     *
+     * @param context a context
+     * @return the cache
+     */
+    @NonNull
+    public static AppIconCache getInstance(@NonNull Context context) {
+        synchronized (AppIconCache.class) {
+            if (sInstance == null) {
+                sInstance = new AppIconCache(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * Receives the icons loaded by {@link #load(String, Callback)}.
+     */
+    public interface Callback {
+        void onIconLoaded(@NonNull String packageName, @Nullable Bitmap icon);
+    }
+
+    /**
+     * A bitmap, together with the package version it was drawn for.
+     */
+    private static class Icon {
+        @NonNull private final Bitmap mBitmap;
+        private final long mLastUpdateTime;
+
+        private Icon(@NonNull Bitmap bitmap, long lastUpdateTime) {
+            mBitmap = bitmap;
+            mLastUpdateTime = lastUpdateTime;
+        }
+    }
+
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "BranchIcons");
+        }
+    };
+
+    @NonNull private final Context mContext;
+    @NonNull private final AppIconProvider mIconProvider = new AppIconProvider();
+    @NonNull private final LruCache<String, Icon> mMemory;
+    @NonNull private final ExecutorService mExecutor
+            = Executors.newSingleThreadExecutor(THREAD_FACTORY);
+    @NonNull private final AtomicBoolean mPrefetching = new AtomicBoolean(false);
+    @NonNull private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final int mSize;
+    private final int mMaxCount;
+    @Nullable private File mDirectory;
+
+    private AppIconCache(@NonNull Context context) {
+        mContext = context;
+        mSize = context.getResources().getDimensionPixelSize(R.dimen.branch_apps_icon);
+        // A 52dp icon on a xxhdpi screen is about 100KB, so this fits about 160 icons
+        // with a 256MB heap. Not all apps of every device, see getMaxCount().
+        int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 16, Integer.MAX_VALUE);
+        mMaxCount = Math.max(1, maxBytes / (mSize * mSize * 4)); // ARGB_8888
+        mMemory = new LruCache<String, Icon>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Icon value) {
+                return value.mBitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Returns how many icons fit in memory. Loading more than this at once is wasted work,
+     * since the first ones are evicted before they are shown.
+     *
+     * @return the number of icons
+     */
+    public int getMaxCount() {
+        return mMaxCount;
+    }
+
+    /**
+     * Drops the icons in memory, so that the next ones are read from disk or PackageManager.
+     */
+    @VisibleForTesting
+    public void evictAll() {
+        mMemory.evictAll();
+    }
+
+    /**
+     * Returns the icon of the given package if it is in memory, without checking whether the
+     * package was updated. Can be called from any thread, including while binding views.
+     *
+     * @param packageName a package name
+     * @return the icon or null
+     */
+    @Nullable
+    public Bitmap peek(@NonNull String packageName) {
+        Icon icon = mMemory.get(packageName);
+        return icon == null ? null : icon.mBitmap;
+    }
+
+    /**
+     * Returns the icon of the given package, loading it from disk or from PackageManager
+     * if it's not in memory or it was drawn for an older version of the package.
+     * Returns null if the package is not installed.
+     *
+     * @param packageName a package name
+     * @return the icon or null
+     */
+    @Nullable
+    @WorkerThread
+    public Bitmap get(@NonNull String packageName) {
+        long lastUpdateTime = PackageRegistry.getInstance(mContext)
+                .getLastUpdateTime(packageName);
+        if (lastUpdateTime == -1) return null;
+        Icon icon = mMemory.get(packageName);
+        if (icon != null && icon.mLastUpdateTime == lastUpdateTime) return icon.mBitmap;
+
+        Bitmap bitmap = read(packageName, lastUpdateTime);
+        if (bitmap == null) {
+            bitmap = load(packageName);
+            if (bitmap == null) return null;
+            write(packageName, lastUpdateTime, bitmap);
+        }
+        mMemory.put(packageName, new Icon(bitmap, lastUpdateTime));
+        return bitmap;
+    }
+
+    /**
+     * Loads the icon of the given package like {@link #get(String)} does, on the cache thread,
+     * then passes it to the callback on the main thread. This is for views that are bound
+     * before their icon was loaded, which should not happen often.
+     *
+     * @param packageName a package name
+     * @param callback the callback
+     */
+    public void load(@NonNull final String packageName, @NonNull final Callback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap bitmap = null;
+                try {
+                    bitmap = get(packageName);
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Could not load icon of " + packageName, e);
+                }
+                final Bitmap icon = bitmap;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onIconLoaded(packageName, icon);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Loads the icons of the first top apps in the background, unless a prefetch is already
+     * running. Also removes the icons of uninstalled apps from disk.
+     * Can be called from any thread.
+     */
+    public void prefetch() {
+        if (!mPrefetching.compareAndSet(false, true)) return;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    List<App> apps;
+                    AppsGenerator generator = new AppsGenerator();
+                    try {
+                        apps = generator.getSnapshot(mContext).getItems();
+                    } finally {
+                        generator.release();
+                    }
+                    int count = Math.min(PREFETCH_COUNT, apps.size());
+                    for (int i = 0; i < count; i++) {
+                        get(apps.get(i).getPackageName());
+                    }
+                    trim();
+                } catch (RuntimeException e) {
+                    // Not fatal, icons will be loaded when needed.
+                    Log.w(TAG, "Could not prefetch icons", e);
+                } finally {
+                    mPrefetching.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads the icon from PackageManager and draws it into a bitmap, like
+     * an ImageView of the app icon size would.
+     */
+    @Nullable
+    private Bitmap load(@NonNull String packageName) {
+        // PackageManager IPC, which StrictMode can't see on its own.
+        StrictMode.noteSlowCall("AppIconCache.load");
+        Drawable drawable;
+        try {
+            drawable = mContext.getPackageManager().getApplicationIcon(packageName);
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+        drawable = mIconProvider.provideAppIcon(mContext, drawable);
+        int width = drawable.getIntrinsicWidth() > 0 ? drawable.getIntrinsicWidth() : mSize;
+        int height = drawable.getIntrinsicHeight() > 0 ? drawable.getIntrinsicHeight() : mSize;
+        Bitmap bitmap = Bitmap.createBitmap(mSize, mSize, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.scale((float) mSize / width, (float) mSize / height);
+        drawable.setBounds(0, 0, width, height);
+        drawable.draw(canvas);
+        return bitmap;
+    }
+
+    /**
+     * Returns the disk cache directory. Icons drawn for another size, for example
+     * after a display density change, are in another directory.
+     */
+    @NonNull
+    private synchronized File getDirectory() {
+        if (mDirectory == null) {
+            mDirectory = new File(new File(mContext.getCacheDir(), DIRECTORY),
+                    String.valueOf(mSize));
+            //noinspection ResultOfMethodCallIgnored
+            mDirectory.mkdirs();
+        }
+        return mDirectory;
+    }
+
+    @Nullable
+    private Bitmap read(@NonNull String packageName, long lastUpdateTime) {
+        File file = new File(getDirectory(), getFileName(packageName, lastUpdateTime));
+        if (!file.exists()) return null;
+        // Returns null if the file is corrupted. It will be written again.
+        return BitmapFactory.decodeFile(file.getAbsolutePath());
+    }
+
+    private void write(@NonNull String packageName, long lastUpdateTime,
+                       @NonNull Bitmap bitmap) {
+        File directory = getDirectory();
+        File file = new File(directory, getFileName(packageName, lastUpdateTime));
+        OutputStream stream = null;
+        File temp = null;
+        try {
+            // Write to a temporary file, so that readers never see half of an icon.
+            temp = File.createTempFile(packageName, null, directory);
+            stream = new FileOutputStream(temp);
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
+            stream.close();
+            stream = null;
+            if (!temp.renameTo(file)) throw new IOException("Could not rename " + temp);
+            temp = null;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write icon of " + packageName, e);
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException ignore) {}
+            }
+            //noinspection ResultOfMethodCallIgnored
+            if (temp != null) temp.delete();
+        }
+
+        // Remove icons of older versions.
+        String[] names = directory.list();
+        if (names == null) return;
+        String current = file.getName();
+        for (String name : names) {
+            if (!name.equals(current) && packageName.equals(getPackageName(name))) {
+                //noinspection ResultOfMethodCallIgnored
+                new File(directory, name).delete();
+            }
+        }
+    }
+
+    /**
+     * Removes from disk the icons of apps that are not installed anymore,
+     * and leftovers of failed writes.
+     */
+    private void trim() {
+        File directory = getDirectory();
+        String[] names = directory.list();
+        if (names == null) return;
+        PackageRegistry registry = PackageRegistry.getInstance(mContext);
+        for (String name : names) {
+            String packageName = getPackageName(name);
+            if (packageName == null || !registry.isInstalled(packageName)) {
+                //noinspection ResultOfMethodCallIgnored
+                new File(directory, name).delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the disk cache file name for the given package version.
+     */
+    @VisibleForTesting
+    @NonNull
+    static String getFileName(@NonNull String packageName, long lastUpdateTime) {
+        return packageName + SEPARATOR + lastUpdateTime + EXTENSION;
+    }
+
+    /**
+     * Returns the package of a file named by {@link #getFileName(String, long)},
+     * or null if the file is not an icon.
+     */
+    @VisibleForTesting
+    @Nullable
+    static String getPackageName(@NonNull String fileName) {
+        if (!fileName.endsWith(EXTENSION)) return null;
+        int separator = fileName.lastIndexOf(SEPARATOR);
+        if (separator <= 0) return null;
+        return fileName.substring(0, separator);
+    }
+}
@@ -10,9 +10,12 @@ import android.content.pm.ResolveInfo;
 import android.os.Build;
 import android.provider.Settings;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import io.branch.search.widget.generator.AppsGenerator;
 
@@ -25,20 +28,19 @@ import io.branch.search.widget.generator.AppsGenerator;
  */
 public class DeviceAppsManager extends BroadcastReceiver {
 
-    private final static String HAS_CHANGES_KEY = "HAS_CHANGES";
-    private final static String SEQUENCE_NUMBER_KEY = "SEQUENCE_NUMBER";
-    private final static String BOOT_COUNT_KEY = "BOOT_COUNT";
+    private final static String PACKAGES_SEQUENCE_NUMBER_KEY = "PACKAGES_SEQUENCE_NUMBER";
+    private final static String PACKAGES_BOOT_COUNT_KEY = "PACKAGES_BOOT_COUNT";
+    private final static String CHANGED_PACKAGES_KEY = "CHANGED_PACKAGES";
 
     /**
+     * Same as {@link PackageRegistry#isInstalled(String)}.
      * @param context a context
      * @param packageName name to be checked
      * @return true if package is installed
      */
     public static boolean isPackageInstalled(@NonNull Context context,
                                              @NonNull String packageName) {
-        PackageManager packageManager = context.getPackageManager();
-        Intent intent = packageManager.getLaunchIntentForPackage(packageName);
-        return intent != null;
+        return PackageRegistry.getInstance(context).isInstalled(packageName);
     }
 
     /**
@@ -48,9 +50,6 @@ public class DeviceAppsManager extends BroadcastReceiver {
      */
     @NonNull
     public static List<ResolveInfo> getInstalledApps(@NonNull Context context) {
-        SharedPreferences preferences = Utility.getSharedPreferences(context);
-        preferences.edit().putBoolean(HAS_CHANGES_KEY, false).apply();
-
         PackageManager manager = context.getPackageManager();
         Intent intent = new Intent(Intent.ACTION_MAIN, null);
         intent.addCategory(Intent.CATEGORY_LAUNCHER);
@@ -67,77 +66,101 @@ public class DeviceAppsManager extends BroadcastReceiver {
     }
 
     /**
-     * Returns true if the device apps are dirty, meaning that something changed
-     * since the last time we checked.
-     * If true is returned, {@link #getInstalledApps(Context)} should be called again.
+     * Returns the names of the packages that were added, removed or updated since the last
+     * call, or null if we can't know which ones. This happens on the first call, and on API 26+
+     * after a reboot, since the sequence number is reset. When null is returned, callers should
+     * assume that every package has changed.
      *
      * @param context a context
-     * @return true if dirty
+     * @return the changed packages, possibly empty, or null
      */
-    public static boolean isDirty(@NonNull Context context) {
+    @Nullable
+    public static Set<String> getChangedPackages(@NonNull Context context) {
         SharedPreferences preferences = Utility.getSharedPreferences(context);
         if (Build.VERSION.SDK_INT >= 26) {
             // Android requires us to use getChangedPackages which has a messy API where we must
             // keep track of a sequence number and the boot count. Doing so through preferences.
-            int sequence = preferences.getInt(SEQUENCE_NUMBER_KEY, 0);
             int realBootCount = 0;
             try {
                 realBootCount = Settings.Global.getInt(
                         context.getContentResolver(),
                         Settings.Global.BOOT_COUNT);
             } catch (Settings.SettingNotFoundException ignore) { /* ignore */ }
-            int bootCount = preferences.getInt(BOOT_COUNT_KEY, realBootCount);
-            if (bootCount != realBootCount) {
-                sequence = 0;
-                preferences.edit()
-                        .putInt(SEQUENCE_NUMBER_KEY, sequence)
-                        .putInt(BOOT_COUNT_KEY, realBootCount)
-                        .apply();
-            }
+            boolean known = preferences.contains(PACKAGES_SEQUENCE_NUMBER_KEY)
+                    && preferences.getInt(PACKAGES_BOOT_COUNT_KEY, -1) == realBootCount;
+            int sequence = known ? preferences.getInt(PACKAGES_SEQUENCE_NUMBER_KEY, 0) : 0;
             PackageManager manager = context.getPackageManager();
             ChangedPackages packages = manager.getChangedPackages(sequence);
-            if (packages != null) {
-                preferences.edit()
-                        .putInt(SEQUENCE_NUMBER_KEY, packages.getSequenceNumber())
-                        .apply();
-                return true;
-            } else {
-                // For some reason that I couldn't figure out, sometimes our sequence number can
-                // become bigger than it should. Due to this, the ChangedPackages will always be
-                // null for a long time. For example, our sequence number can be 100 but
-                // PackageManager is left on 20: in this case, we need 80 changes before we can
-                // inspect the correct sequence number. I think this can happen maybe when
-                // preferences are saved into a new device.
-                // Anyway, this can be easily solved by inspecting sequence 0 to get on par with
-                // the PackageManager counter.
-                if (sequence != 0) {
-                    packages = manager.getChangedPackages(0);
-                    if (packages != null && sequence > packages.getSequenceNumber()) {
-                        // Update the sequence and return true. We don't know if some package
-                        // changed, but there's no way to know since our reference number was wrong.
-                        preferences.edit()
-                                .putInt(SEQUENCE_NUMBER_KEY, packages.getSequenceNumber())
-                                .apply();
-                        return true;
-                    }
+            if (packages == null && sequence != 0) {
+                // For some reason, our sequence number can become bigger than it should,
+                // maybe when preferences are restored on a new device. ChangedPackages would
+                // then be null until the PackageManager catches up, so inspect sequence 0
+                // to get on par with its counter. We can't know what changed meanwhile.
+                ChangedPackages all = manager.getChangedPackages(0);
+                if (all != null && sequence > all.getSequenceNumber()) {
+                    known = false;
+                    packages = all;
                 }
-                return false;
             }
+            preferences.edit()
+                    .putInt(PACKAGES_SEQUENCE_NUMBER_KEY,
+                            packages != null ? packages.getSequenceNumber() : sequence)
+                    .putInt(PACKAGES_BOOT_COUNT_KEY, realBootCount)
+                    .apply();
+            if (!known) return null;
+            Set<String> result = new HashSet<>();
+            if (packages != null) result.addAll(packages.getPackageNames());
+            return result;
         } else {
-            return preferences.getBoolean(HAS_CHANGES_KEY, false);
+            // Filled by onReceive().
+            synchronized (DeviceAppsManager.class) {
+                Set<String> packages = preferences.getStringSet(CHANGED_PACKAGES_KEY, null);
+                preferences.edit()
+                        .putStringSet(CHANGED_PACKAGES_KEY, new HashSet<String>())
+                        .apply();
+                return packages == null ? null : new HashSet<>(packages);
+            }
         }
     }
 
     /**
-     * For API < 26, we listen to PACKAGE_ADDED event and set HAS_CHANGES to true.
+     * For API < 26, we keep track of the changed packages for
+     * {@link #getChangedPackages(Context)}.
+     * Nothing is refreshed here, since this receiver can start our process: changes are
+     * applied by the next refresh. While {@link AppsGenerator} is alive, it registers its own
+     * receiver, which refreshes apps right away.
      */
     @Override
     public void onReceive(Context context, Intent intent) {
-        if (Intent.ACTION_PACKAGE_ADDED.equals(intent.getAction())) {
-            Utility.getSharedPreferences(context)
-                    .edit()
-                    .putBoolean(HAS_CHANGES_KEY, true)
-                    .apply();
+        recordChange(context, intent);
+    }
+
+    /**
+     * Records the package change of the given broadcast, if any, so that it is returned
+     * by the next {@link #getChangedPackages(Context)} call. Recording twice is harmless.
+     *
+     * @param context a context
+     * @param intent a package broadcast
+     */
+    public static void recordChange(@NonNull Context context, @NonNull Intent intent) {
+        // On API 26+, getChangedPackages() asks the PackageManager.
+        if (Build.VERSION.SDK_INT >= 26) return;
+        String action = intent.getAction();
+        if ((Intent.ACTION_PACKAGE_ADDED.equals(action)
+                || Intent.ACTION_PACKAGE_REMOVED.equals(action)
+                || Intent.ACTION_PACKAGE_REPLACED.equals(action))
+                && intent.getData() != null) {
+            String packageName = intent.getData().getSchemeSpecificPart();
+            synchronized (DeviceAppsManager.class) {
+                SharedPreferences preferences = Utility.getSharedPreferences(context);
+                Set<String> packages = preferences.getStringSet(CHANGED_PACKAGES_KEY, null);
+                // If null, getChangedPackages() was never called and will return null anyway.
+                if (packages != null) {
+                    packages = new HashSet<>(packages);
+                    packages.add(packageName);
+                    preferences.edit().putStringSet(CHANGED_PACKAGES_KEY, packages).apply();
+                }
+            }
         }
     }
 }
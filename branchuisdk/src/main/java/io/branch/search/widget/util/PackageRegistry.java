@@ -0,0 +1,230 @@
+package io.branch.search.widget.util;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.LauncherActivityInfo;
+import android.content.pm.LauncherApps;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.StrictMode;
+import android.os.UserHandle;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A process-wide registry of the apps that can be launched, for the current user.
+ *
+ * The registry is loaded once, then kept up to date by a {@link LauncherApps.Callback}.
+ * Reads never lock and never call PackageManager: the registry is an immutable map which
+ * is replaced as a whole when a package changes. So {@link #isInstalled(String)} and
+ * {@link #getLaunchIntent(String)} can be called from any thread, including while binding
+ * views. Labels are loaded the first time they are requested, and cached until the
+ * package or the locale changes. The same goes for the last update time. Calls that do
+ * IPC are reported to StrictMode as slow calls, since it can't detect binder calls.
+ */
+public class PackageRegistry {
+
+    private static PackageRegistry sInstance;
+
+    /**
+     * Returns the registry, loading it on the first call. The first call should be made
+     * on a background thread.
+     *
+     * @param context a context
+     * @return the registry
+     */
+    @NonNull
+    public static PackageRegistry getInstance(@NonNull Context context) {
+        synchronized (PackageRegistry.class) {
+            if (sInstance == null) {
+                sInstance = new PackageRegistry(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * A launchable package.
+     */
+    private static class Entry {
+        @NonNull private final LauncherActivityInfo mInfo;
+        @Nullable private volatile String mLabel;
+        @Nullable private volatile Locale mLabelLocale;
+        private volatile long mLastUpdateTime = -1;
+
+        private Entry(@NonNull LauncherActivityInfo info) {
+            mInfo = info;
+        }
+
+        @NonNull
+        private String getLabel() {
+            // Reading the label can be done by two threads at once, but that's harmless.
+            Locale locale = Locale.getDefault();
+            String label = mLabel;
+            if (label == null || !locale.equals(mLabelLocale)) {
+                StrictMode.noteSlowCall("PackageRegistry.getLabel");
+                label = mInfo.getLabel().toString();
+                mLabelLocale = locale;
+                mLabel = label;
+            }
+            return label;
+        }
+
+        private long getLastUpdateTime(@NonNull PackageManager manager) {
+            long time = mLastUpdateTime;
+            if (time == -1) {
+                StrictMode.noteSlowCall("PackageRegistry.getLastUpdateTime");
+                String packageName = mInfo.getComponentName().getPackageName();
+                try {
+                    time = manager.getPackageInfo(packageName, 0).lastUpdateTime;
+                } catch (PackageManager.NameNotFoundException e) {
+                    // Removed meanwhile. The callback will remove this entry.
+                    return 0;
+                }
+                mLastUpdateTime = time;
+            }
+            return time;
+        }
+    }
+
+    @NonNull private final LauncherApps mLauncherApps;
+    @NonNull private final PackageManager mPackageManager;
+    @NonNull private final UserHandle mUser = Process.myUserHandle();
+    @NonNull private volatile Map<String, Entry> mEntries;
+
+    private final LauncherApps.Callback mCallback = new LauncherApps.Callback() {
+        @Override
+        public void onPackageRemoved(String packageName, UserHandle user) {
+            if (mUser.equals(user)) update(packageName);
+        }
+
+        @Override
+        public void onPackageAdded(String packageName, UserHandle user) {
+            if (mUser.equals(user)) update(packageName);
+        }
+
+        @Override
+        public void onPackageChanged(String packageName, UserHandle user) {
+            if (mUser.equals(user)) update(packageName);
+        }
+
+        @Override
+        public void onPackagesAvailable(String[] packageNames, UserHandle user,
+                                        boolean replacing) {
+            if (mUser.equals(user)) update(packageNames);
+        }
+
+        @Override
+        public void onPackagesUnavailable(String[] packageNames, UserHandle user,
+                                          boolean replacing) {
+            if (mUser.equals(user)) update(packageNames);
+        }
+    };
+
+    private PackageRegistry(@NonNull Context context) {
+        StrictMode.noteSlowCall("PackageRegistry.load");
+        mLauncherApps = (LauncherApps) context.getSystemService(Context.LAUNCHER_APPS_SERVICE);
+        mPackageManager = context.getPackageManager();
+        // Callbacks reload packages, so they are received on a background thread.
+        HandlerThread thread = new HandlerThread("BranchPackages",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        // Register first, so that we don't miss changes that happen while loading.
+        mLauncherApps.registerCallback(mCallback, new Handler(thread.getLooper()));
+        // Callbacks wait for us, since update() is synchronized too.
+        synchronized (this) {
+            Map<String, Entry> entries = new HashMap<>();
+            for (LauncherActivityInfo info : mLauncherApps.getActivityList(null, mUser)) {
+                String packageName = info.getComponentName().getPackageName();
+                // Keep the first activity, like PackageManager.getLaunchIntentForPackage().
+                if (!entries.containsKey(packageName)) {
+                    entries.put(packageName, new Entry(info));
+                }
+            }
+            mEntries = Collections.unmodifiableMap(entries);
+        }
+    }
+
+    /**
+     * Reloads the given packages.
+     */
+    private synchronized void update(@NonNull String... packageNames) {
+        Map<String, Entry> entries = new HashMap<>(mEntries);
+        for (String packageName : packageNames) {
+            List<LauncherActivityInfo> infos = mLauncherApps.getActivityList(packageName, mUser);
+            if (infos.isEmpty()) {
+                entries.remove(packageName);
+            } else {
+                entries.put(packageName, new Entry(infos.get(0)));
+            }
+        }
+        mEntries = Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * Returns true if the given package is installed and has a launcher activity.
+     *
+     * @param packageName a package name
+     * @return true if installed
+     */
+    public boolean isInstalled(@NonNull String packageName) {
+        return mEntries.containsKey(packageName);
+    }
+
+    /**
+     * Returns the label of the launcher activity of the given package, or null if it's not
+     * installed. The first call for a package loads the label, so it's better to make it on
+     * a background thread.
+     *
+     * @param packageName a package name
+     * @return the label or null
+     */
+    @Nullable
+    public String getLabel(@NonNull String packageName) {
+        Entry entry = mEntries.get(packageName);
+        return entry == null ? null : entry.getLabel();
+    }
+
+    /**
+     * Returns the last time the given package was installed or updated, like
+     * {@link android.content.pm.PackageInfo#lastUpdateTime}, or -1 if it's not installed.
+     * The first call for a package loads the time, so it's better to make it on
+     * a background thread.
+     *
+     * @param packageName a package name
+     * @return the last update time or -1
+     */
+    public long getLastUpdateTime(@NonNull String packageName) {
+        Entry entry = mEntries.get(packageName);
+        return entry == null ? -1 : entry.getLastUpdateTime(mPackageManager);
+    }
+
+    /**
+     * Returns an intent that launches the given package, like
+     * {@link android.content.pm.PackageManager#getLaunchIntentForPackage(String)},
+     * or null if it's not installed.
+     *
+     * @param packageName a package name
+     * @return the intent or null
+     */
+    @Nullable
+    public Intent getLaunchIntent(@NonNull String packageName) {
+        Entry entry = mEntries.get(packageName);
+        if (entry == null) return null;
+        ComponentName component = entry.mInfo.getComponentName();
+        Intent intent = new Intent(Intent.ACTION_MAIN);
+        intent.addCategory(Intent.CATEGORY_LAUNCHER);
+        intent.setComponent(component);
+        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        return intent;
+    }
+}
@@ -0,0 +1,293 @@
+package io.branch.search.widget.util;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.JsonReader;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * A read-only table from package name to popularity, as found in the top apps JSON asset.
+ *
+ * The JSON is compiled at build time by the compileTopApps Gradle task into a binary asset,
+ * which is a header followed by entries sorted by package hash:
+ * - magic (int), length of the source JSON (int), CRC32 of its first {@link #HEAD_BYTES} (int),
+ *   entry count (int)
+ * - for each entry: {@link #hash(String)} of the package name (long), popularity (int)
+ *
+ * Lookups are a binary search in that buffer, which is memory-mapped when the asset is stored
+ * uncompressed. If the binary asset is missing or was compiled from a different JSON, because
+ * the host app ships its own branch_topapps.json, the JSON is parsed instead. Telling the two
+ * apart only reads the JSON length and head, so that a cold start doesn't read the whole file.
+ */
+public class TopAppsTable {
+
+    private static final String TAG = "Branch::TopApps";
+
+    @VisibleForTesting static final String JSON_ASSET = "branch_topapps.json";
+    @VisibleForTesting static final String BINARY_ASSET = "branch_topapps.bin";
+
+    @VisibleForTesting static final int MAGIC = 0x42544133; // "BTA3"
+    @VisibleForTesting static final int HEAD_BYTES = 4096;
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 12;
+
+    // FNV-1a, 64 bits. The offset is 0xcbf29ce484222325 as a signed long.
+    private static final long FNV_OFFSET = -3750763034362895579L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    @NonNull private final ByteBuffer mBuffer;
+    private final int mSize;
+
+    private TopAppsTable(@NonNull ByteBuffer buffer) {
+        mBuffer = buffer;
+        mSize = buffer.getInt(12);
+    }
+
+    /**
+     * Returns the popularity of the given package,
+     * or -1 if it's not a top app, like {@link io.branch.search.widget.model.App}.
+     * Can be called from any thread.
+     *
+     * @param packageName a package name
+     * @return the popularity or -1
+     */
+    public int getPopularity(@NonNull String packageName) {
+        long hash = hash(packageName);
+        int low = 0;
+        int high = mSize - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long value = mBuffer.getLong(HEADER_SIZE + middle * ENTRY_SIZE);
+            if (value < hash) {
+                low = middle + 1;
+            } else if (value > hash) {
+                high = middle - 1;
+            } else {
+                return mBuffer.getInt(HEADER_SIZE + middle * ENTRY_SIZE + 8);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of packages in this table.
+     * @return the size
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Opens the table from the assets. This should be called on a background thread.
+     *
+     * @param context a context
+     * @return the table
+     * @throws IOException if the JSON asset can't be read either
+     */
+    @NonNull
+    public static TopAppsTable open(@NonNull Context context) throws IOException {
+        AssetManager assets = context.getAssets();
+        int jsonLength;
+        int jsonChecksum;
+        InputStream json = assets.open(JSON_ASSET);
+        try {
+            // Asset streams know their length, even when compressed. The host app JSON
+            // might have the same length as ours, so compare its head too.
+            jsonLength = json.available();
+            jsonChecksum = checksum(json, HEAD_BYTES);
+        } finally {
+            json.close();
+        }
+
+        try {
+            ByteBuffer buffer = openBinary(assets);
+            if (buffer != null && buffer.getInt(4) == jsonLength
+                    && buffer.getInt(8) == jsonChecksum) {
+                return wrap(buffer);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(TAG, "Could not read " + BINARY_ASSET, e);
+        }
+        Log.i(TAG, BINARY_ASSET + " does not match " + JSON_ASSET + ". Parsing the JSON.");
+        return parseJson(assets);
+    }
+
+    /**
+     * Returns the CRC32 of the first bytes of the given stream, as stored in the header
+     * by the compileTopApps task.
+     *
+     * @param stream a stream
+     * @param limit max number of bytes to read
+     * @return the checksum
+     * @throws IOException if the stream can't be read
+     */
+    @VisibleForTesting
+    static int checksum(@NonNull InputStream stream, int limit) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[Math.min(limit, 8192)];
+        int read;
+        while (limit > 0 && (read = stream.read(buffer, 0, Math.min(limit, buffer.length))) > 0) {
+            crc.update(buffer, 0, read);
+            limit -= read;
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Maps the binary asset if it is not compressed, otherwise reads it in memory.
+     * Returns null if there's no binary asset.
+     */
+    @Nullable
+    private static ByteBuffer openBinary(@NonNull AssetManager assets) throws IOException {
+        try {
+            AssetFileDescriptor descriptor = assets.openFd(BINARY_ASSET);
+            try {
+                FileChannel channel = new FileInputStream(descriptor.getFileDescriptor())
+                        .getChannel();
+                try {
+                    return channel.map(FileChannel.MapMode.READ_ONLY,
+                            descriptor.getStartOffset(), descriptor.getLength());
+                } finally {
+                    // The mapping stays valid after closing.
+                    channel.close();
+                }
+            } finally {
+                descriptor.close();
+            }
+        } catch (IOException e) {
+            // Compressed, or missing. openFd() throws a FileNotFoundException in both cases.
+        }
+
+        InputStream stream;
+        try {
+            stream = assets.open(BINARY_ASSET);
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            byte[] bytes = new byte[stream.available()];
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = stream.read(bytes, offset, bytes.length - offset);
+                if (read < 0) throw new IOException("Unexpected end of " + BINARY_ASSET);
+                offset += read;
+            }
+            return ByteBuffer.wrap(bytes);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Parses the JSON asset with a streaming reader.
+     */
+    @NonNull
+    private static TopAppsTable parseJson(@NonNull AssetManager assets) throws IOException {
+        Map<String, Integer> popularity = new LinkedHashMap<>();
+        JsonReader reader = new JsonReader(new InputStreamReader(assets.open(JSON_ASSET),
+                StandardCharsets.UTF_8));
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String packageName = null;
+                int value = -1;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (name.equals("package_name")) {
+                        packageName = reader.nextString();
+                    } else if (name.equals("popularity")) {
+                        value = reader.nextInt();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (packageName != null && !popularity.containsKey(packageName)) {
+                    popularity.put(packageName, value);
+                }
+            }
+            reader.endArray();
+        } finally {
+            reader.close();
+        }
+        return create(popularity);
+    }
+
+    /**
+     * Builds a table from the given entries, with the same layout as the binary asset.
+     * When two packages have the same hash, the first one in iteration order wins.
+     * There's no source JSON, so its length and checksum are 0.
+     *
+     * @param popularity a map from package name to popularity
+     * @return the table
+     */
+    @VisibleForTesting
+    @NonNull
+    static TopAppsTable create(@NonNull Map<String, Integer> popularity) {
+        TreeMap<Long, Integer> entries = new TreeMap<>();
+        for (Map.Entry<String, Integer> entry : popularity.entrySet()) {
+            long hash = hash(entry.getKey());
+            if (!entries.containsKey(hash)) entries.put(hash, entry.getValue());
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + entries.size() * ENTRY_SIZE);
+        buffer.putInt(MAGIC).putInt(0).putInt(0).putInt(entries.size());
+        for (Map.Entry<Long, Integer> entry : entries.entrySet()) {
+            buffer.putLong(entry.getKey()).putInt(entry.getValue());
+        }
+        return wrap(buffer);
+    }
+
+    /**
+     * Wraps a buffer with the layout of the binary asset.
+     *
+     * @param buffer a buffer
+     * @return the table
+     * @throws IllegalArgumentException if the buffer is not a valid table
+     */
+    @VisibleForTesting
+    @NonNull
+    static TopAppsTable wrap(@NonNull ByteBuffer buffer) {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a top apps table.");
+        }
+        int size = buffer.getInt(12);
+        if (size < 0 || buffer.capacity() != HEADER_SIZE + (long) size * ENTRY_SIZE) {
+            throw new IllegalArgumentException("Invalid top apps table size: " + size);
+        }
+        return new TopAppsTable(buffer);
+    }
+
+    /**
+     * Hashes a package name. This must match the compileTopApps task in build.gradle.
+     *
+     * @param packageName a package name
+     * @return the hash
+     */
+    @VisibleForTesting
+    static long hash(@NonNull String packageName) {
+        long hash = FNV_OFFSET;
+        byte[] bytes = packageName.getBytes(StandardCharsets.UTF_8);
+        for (byte b : bytes) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
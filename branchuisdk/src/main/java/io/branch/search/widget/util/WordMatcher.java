@@ -1,10 +1,13 @@
 package io.branch.search.widget.util;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.text.Spannable;
 import android.text.SpannableString;
 import android.widget.TextView;
 
+import java.util.Arrays;
+
 /**
  * Helps in identifying matches and applying text Spans to them.
  *
@@ -44,6 +47,16 @@ public class WordMatcher {
         public int splitOffset(int character) {
             return 1;
         }
+
+        @Override
+        public boolean equals(@Nullable Object obj) {
+            return obj != null && obj.getClass() == getClass();
+        }
+
+        @Override
+        public int hashCode() {
+            return getClass().hashCode();
+        }
     }
 
     /**
@@ -66,6 +79,16 @@ public class WordMatcher {
         public int splitOffset(int character) {
             return 0;
         }
+
+        @Override
+        public boolean equals(@Nullable Object obj) {
+            return obj instanceof CharSplitter && ((CharSplitter) obj).mChar == mChar;
+        }
+
+        @Override
+        public int hashCode() {
+            return mChar;
+        }
     }
 
     /**
@@ -88,6 +111,16 @@ public class WordMatcher {
         public int splitOffset(int character) {
             return 0;
         }
+
+        @Override
+        public boolean equals(@Nullable Object obj) {
+            return obj instanceof CaseSplitter && ((CaseSplitter) obj).mUpper == mUpper;
+        }
+
+        @Override
+        public int hashCode() {
+            return mUpper ? 1 : 0;
+        }
     }
 
     /**
@@ -105,6 +138,16 @@ public class WordMatcher {
         public int splitOffset(int character) {
             return 0;
         }
+
+        @Override
+        public boolean equals(@Nullable Object obj) {
+            return obj != null && obj.getClass() == getClass();
+        }
+
+        @Override
+        public int hashCode() {
+            return getClass().hashCode();
+        }
     }
 
     /**
@@ -122,8 +165,171 @@ public class WordMatcher {
         public int splitOffset(int character) {
             return Character.isLetterOrDigit(character) ? 0 : 1;
         }
+
+        @Override
+        public boolean equals(@Nullable Object obj) {
+            return obj != null && obj.getClass() == getClass();
+        }
+
+        @Override
+        public int hashCode() {
+            return getClass().hashCode();
+        }
     }
 
+    /**
+     * A text that was prepared for matching by {@link #prepare(String)}: it holds the
+     * case-folded characters and the word start offsets, so that matching against
+     * a {@link Query} requires no allocations and no case conversions.
+     *
+     * Labels are immutable and are meant to be cached by the model objects.
+     */
+    public static final class Label {
+        @NonNull private final Splitter[] mSplitters;
+        @NonNull private final String mText;
+        @NonNull private final char[] mFolded;
+        @NonNull private final int[] mWordStarts;
+        private final long mMask;
+
+        private Label(@NonNull Splitter[] splitters,
+                      @NonNull String text,
+                      @NonNull char[] folded,
+                      @NonNull int[] wordStarts) {
+            mSplitters = splitters;
+            mText = text;
+            mFolded = folded;
+            mWordStarts = wordStarts;
+            mMask = mask(folded);
+        }
+
+        /**
+         * Returns the original text.
+         * @return the text
+         */
+        @NonNull
+        public String getText() {
+            return mText;
+        }
+
+        /**
+         * Returns the case-folded characters. Must not be modified.
+         * @return the folded characters
+         */
+        @NonNull
+        public char[] getFoldedChars() {
+            return mFolded;
+        }
+
+        /**
+         * Returns the signature of the characters in this label, as in {@link #mask(char)}.
+         * @return the mask
+         */
+        public long getMask() {
+            return mMask;
+        }
+
+        /**
+         * Returns the word start offsets, as in {@link #findWordStarts(String)}.
+         * Must not be modified.
+         * @return the word starts
+         */
+        @NonNull
+        public int[] getWordStarts() {
+            return mWordStarts;
+        }
+
+        /**
+         * Returns true if this label was prepared by the given matcher, or by
+         * a matcher with the same splitters.
+         * @param matcher a matcher
+         * @return true if it can be used with the given matcher
+         */
+        public boolean isPreparedBy(@NonNull WordMatcher matcher) {
+            return mSplitters == matcher.mSplitters
+                    || Arrays.equals(mSplitters, matcher.mSplitters);
+        }
+
+        /**
+         * Returns true if the text is equal to the query, ignoring case.
+         * @param query the query
+         * @return true if equal
+         */
+        public boolean equalsText(@NonNull Query query) {
+            return mFolded.length == query.mFolded.length
+                    && regionMatches(0, query.mFolded);
+        }
+
+        /**
+         * Returns true if one of the whitespace separated words of the text
+         * is equal to the query, ignoring case.
+         * @param query the query
+         * @return true if a word is equal
+         */
+        public boolean containsWord(@NonNull Query query) {
+            int length = query.mFolded.length;
+            if (length == 0) return false;
+            for (int start = 0; start + length <= mFolded.length; start++) {
+                if (start > 0 && !Character.isWhitespace(mFolded[start - 1])) continue;
+                int end = start + length;
+                if (end < mFolded.length && !Character.isWhitespace(mFolded[end])) continue;
+                if (regionMatches(start, query.mFolded)) return true;
+            }
+            return false;
+        }
+
+        private boolean regionMatches(int start, @NonNull char[] query) {
+            if (start + query.length > mFolded.length) return false;
+            for (int i = 0; i < query.length; i++) {
+                if (mFolded[start + i] != query[i]) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A query that was compiled by {@link #compile(String)}. Compiling once and reusing
+     * the result for all candidates avoids case conversions in the matching loop.
+     */
+    public static final class Query {
+        @NonNull private final String mText;
+        @NonNull private final char[] mFolded;
+        private final long mMask;
+
+        private Query(@NonNull String text, @NonNull char[] folded) {
+            mText = text;
+            mFolded = folded;
+            mMask = mask(folded);
+        }
+
+        /**
+         * Returns the original query.
+         * @return the query
+         */
+        @NonNull
+        public String getText() {
+            return mText;
+        }
+
+        /**
+         * Returns the case-folded characters. Must not be modified.
+         * @return the folded characters
+         */
+        @NonNull
+        public char[] getFoldedChars() {
+            return mFolded;
+        }
+
+        /**
+         * Returns the signature of the characters in this query, as in {@link #mask(char)}.
+         * @return the mask
+         */
+        public long getMask() {
+            return mMask;
+        }
+    }
+
+    private static final String KEYPAD_DIGITS = "22233344455566677778889999";
+
     private Splitter[] mSplitters;
 
     public WordMatcher(@NonNull Splitter... splitters) {
@@ -134,11 +340,180 @@ public class WordMatcher {
         this(new SpaceSplitter());
     }
 
+    /**
+     * Prepares the given text for fast matching through {@link #matches(Label, Query)}.
+     * @param text the text
+     * @return a label
+     */
+    @NonNull
+    public Label prepare(@NonNull String text) {
+        return new Label(mSplitters, text, foldAll(text), findWordStarts(text));
+    }
+
+    /**
+     * Prepares the given text for dial pad matching: letters are replaced by the digit
+     * of their key (see {@link #toKeypadDigit(char)}), while word starts are the same
+     * of {@link #prepare(String)}. A digit query compiled by {@link #compile(String)}
+     * will then match the label, so that "5646" matches "John".
+     *
+     * @param text the text
+     * @return a label whose folded characters are keypad digits
+     */
+    @NonNull
+    public Label prepareKeypad(@NonNull String text) {
+        char[] keys = foldAll(text);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = toKeypadDigit(keys[i]);
+        }
+        return new Label(mSplitters, text, keys, findWordStarts(text));
+    }
+
+    /**
+     * Prepares the given phone number for substring matching: only digits are kept,
+     * and every digit is considered a word start, so that a digit query matches
+     * the label if it is contained anywhere in the number. When indexed by a word index,
+     * this is a suffix array of the number digits.
+     *
+     * @param number the phone number
+     * @return a label whose folded characters are the number digits
+     */
+    @NonNull
+    public Label preparePhoneNumber(@NonNull String number) {
+        char[] digits = new char[number.length()];
+        int length = 0;
+        for (int i = 0; i < number.length(); i++) {
+            char character = number.charAt(i);
+            if (character >= '0' && character <= '9') {
+                digits[length++] = character;
+            }
+        }
+        int[] starts = new int[length];
+        for (int i = 0; i < length; i++) {
+            starts[i] = i;
+        }
+        return new Label(mSplitters, number, Arrays.copyOf(digits, length), starts);
+    }
+
+    /**
+     * Returns the dial pad digit for the given folded character,
+     * or the character itself if it is not a latin letter.
+     *
+     * @param folded a folded character, see {@link #fold(char)}
+     * @return the digit
+     */
+    public static char toKeypadDigit(char folded) {
+        if (folded < 'a' || folded > 'z') return folded;
+        return KEYPAD_DIGITS.charAt(folded - 'a');
+    }
+
+    /**
+     * Returns true if the query is only made of dial pad digits.
+     *
+     * @param query the query
+     * @return true if it can be matched against keypad labels
+     */
+    public static boolean isKeypadQuery(@NonNull String query) {
+        if (query.isEmpty()) return false;
+        for (int i = 0; i < query.length(); i++) {
+            char character = query.charAt(i);
+            if (character < '0' || character > '9') return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compiles the given query for fast matching through {@link #matches(Label, Query)}.
+     * @param query the query
+     * @return a compiled query
+     */
+    @NonNull
+    public Query compile(@NonNull String query) {
+        return new Query(query, foldAll(query));
+    }
+
+    /**
+     * Returns true if a match is found. Same as {@link #matches(String, String)},
+     * but does not allocate anything, so it should be preferred when the same query
+     * is matched against many candidates.
+     *
+     * @param label a label created by this matcher
+     * @param query a query compiled by this matcher
+     * @return true if matches
+     */
+    public boolean matches(@NonNull Label label, @NonNull Query query) {
+        char[] folded = query.mFolded;
+        if (folded.length == 0) return false;
+        if (!containsMask(label.mMask, query.mMask)) return false;
+        for (int start : label.mWordStarts) {
+            if (label.regionMatches(start, folded)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if each query matches the label at a different word start, in any order,
+     * as in {@link #matches(Label, Query)}. So "jo smith" matches "John Smith", but "jo jo"
+     * does not, since both queries would match the same word.
+     *
+     * @param label a label created by this matcher
+     * @param queries queries compiled by this matcher
+     * @return true if all match
+     */
+    public boolean matchesAll(@NonNull Label label, @NonNull Query[] queries) {
+        for (Query query : queries) {
+            if (query.mFolded.length == 0) return false;
+            if (!containsMask(label.mMask, query.mMask)) return false;
+        }
+        return matchesAll(label, queries, 0, new boolean[label.mWordStarts.length]);
+    }
+
+    /**
+     * Matches queries[index] and the following ones to word starts that are not used yet.
+     * A query can match more than one word, so this backtracks when the others fail.
+     */
+    private static boolean matchesAll(@NonNull Label label,
+                                      @NonNull Query[] queries,
+                                      int index,
+                                      @NonNull boolean[] used) {
+        if (index == queries.length) return true;
+        char[] folded = queries[index].mFolded;
+        int[] starts = label.mWordStarts;
+        for (int i = 0; i < starts.length; i++) {
+            if (used[i] || !label.regionMatches(starts[i], folded)) continue;
+            used[i] = true;
+            if (matchesAll(label, queries, index + 1, used)) return true;
+            used[i] = false;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if a match is found. Same as {@link #matches(String, String)},
+     * but the query is compiled once. Use this when labels are not worth preparing,
+     * for example because they come from a cursor.
+     *
+     * @param text full text
+     * @param query a query compiled by this matcher
+     * @return true if matches
+     */
+    public boolean matches(@NonNull String text, @NonNull Query query) {
+        if (text.isEmpty() || query.mFolded.length == 0) return false;
+        if (!containsMask(mask(text), query.mMask)) return false;
+        return matchesUnchecked(text, query.mText);
+    }
+
     /**
      * Returns true if a match is found.
      */
     public boolean matches(@NonNull String text, @NonNull String query) {
         if (text.isEmpty() || query.isEmpty()) return false;
+        if (!containsMask(mask(text), mask(query))) return false;
+        return matchesUnchecked(text, query);
+    }
+
+    private boolean matchesUnchecked(@NonNull String text, @NonNull String query) {
         if (!containsIgnoreCase(text, query)) return false;
 
         for (Splitter splitter : mSplitters) {
@@ -149,6 +524,106 @@ public class WordMatcher {
         return false;
     }
 
+    /**
+     * Returns the offsets at which words start in the given text, as identified by the
+     * splitters of this matcher. The array is sorted and contains no duplicates.
+     *
+     * A query matches the text (see {@link #matches(String, String)}) if and only if the text
+     * starts with the query, ignoring case, at one of these offsets.
+     *
+     * @param text full text
+     * @return word start offsets
+     */
+    @NonNull
+    public int[] findWordStarts(@NonNull String text) {
+        int length = text.length();
+        if (length == 0) return new int[0];
+        boolean[] starts = new boolean[length];
+        starts[0] = true;
+        int count = 1;
+        for (Splitter splitter : mSplitters) {
+            for (int i = 0; i < length; i++) {
+                char character = text.charAt(i);
+                if (splitter.splitsBy(character)) {
+                    int start = i + splitter.splitOffset(character);
+                    if (start < length && !starts[start]) {
+                        starts[start] = true;
+                        count++;
+                    }
+                }
+            }
+        }
+        int[] result = new int[count];
+        for (int i = 0, j = 0; i < length; i++) {
+            if (starts[i]) result[j++] = i;
+        }
+        return result;
+    }
+
+    /**
+     * Folds the given character so that two characters that are considered equal
+     * when ignoring case have the same folded value. Same logic as
+     * {@link String#regionMatches(boolean, int, String, int, int)}.
+     *
+     * @param character a character
+     * @return the folded character
+     */
+    public static char fold(char character) {
+        return Character.toLowerCase(Character.toUpperCase(character));
+    }
+
+    /**
+     * Returns a 64-bit signature of the given folded character. Letters and digits have
+     * their own bit, other characters share the remaining ones.
+     *
+     * The mask of a text is the union of the signatures of its characters. If the text mask
+     * does not contain all the bits of the query mask, the query is certainly not contained in
+     * the text, so most candidates can be rejected without scanning them.
+     *
+     * @param folded a folded character, see {@link #fold(char)}
+     * @return the signature
+     */
+    public static long mask(char folded) {
+        int bit;
+        if (folded >= 'a' && folded <= 'z') {
+            bit = folded - 'a';
+        } else if (folded >= '0' && folded <= '9') {
+            bit = 26 + (folded - '0');
+        } else {
+            bit = 36 + (folded % 28);
+        }
+        return 1L << bit;
+    }
+
+    private static long mask(@NonNull char[] folded) {
+        long mask = 0;
+        for (char character : folded) {
+            mask |= mask(character);
+        }
+        return mask;
+    }
+
+    private static long mask(@NonNull String text) {
+        long mask = 0;
+        for (int i = 0; i < text.length(); i++) {
+            mask |= mask(fold(text.charAt(i)));
+        }
+        return mask;
+    }
+
+    private static boolean containsMask(long textMask, long queryMask) {
+        return (textMask & queryMask) == queryMask;
+    }
+
+    @NonNull
+    private static char[] foldAll(@NonNull String text) {
+        char[] folded = new char[text.length()];
+        for (int i = 0; i < folded.length; i++) {
+            folded[i] = fold(text.charAt(i));
+        }
+        return folded;
+    }
+
     /**
      * Applies the given decoration to [text] based on [query] matching,
      * then sets this result to [view].
@@ -157,19 +632,21 @@ public class WordMatcher {
                          @NonNull String query,
                          @NonNull TextView view,
                          @NonNull Object decoration) {
-        if (text.isEmpty() || query.isEmpty()) return;
-        if (!containsIgnoreCase(text, query)) return;
-
-        for (Splitter splitter : mSplitters) {
-            int index = find(text, query, splitter);
-            if (index >= 0) {
-                Spannable spannable = new SpannableString(text);
-                spannable.setSpan(decoration, index, index + query.length(),
-                        Spannable.SPAN_INCLUSIVE_INCLUSIVE);
-                view.setText(spannable);
-                return;
+        if (!text.isEmpty() && !query.isEmpty() && containsIgnoreCase(text, query)) {
+            for (Splitter splitter : mSplitters) {
+                int index = find(text, query, splitter);
+                if (index >= 0) {
+                    Spannable spannable = new SpannableString(text);
+                    spannable.setSpan(decoration, index, index + query.length(),
+                            Spannable.SPAN_INCLUSIVE_INCLUSIVE);
+                    view.setText(spannable);
+                    return;
+                }
             }
         }
+        // No match, for example because the text was found by fuzzy matching.
+        // We must still set it, or recycled views would show an old value.
+        view.setText(text);
     }
 
     /**
@@ -0,0 +1,16 @@
+package io.branch.search.widget.database;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ContactNameTest {
+
+    @Test
+    public void testToMatchQuery() {
+        Assert.assertEquals("\"john*\"", ContactName.toMatchQuery("john"));
+        Assert.assertEquals("\"smith*\" \"jo*\"", ContactName.toMatchQuery(" smith  jo"));
+        // Quotes are dropped, and operators are quoted like any other word.
+        Assert.assertEquals("\"a*\" \"OR*\" \"b*\"", ContactName.toMatchQuery("\"a\" OR-b"));
+        Assert.assertNull(ContactName.toMatchQuery(" \"* "));
+    }
+}
@@ -0,0 +1,24 @@
+package io.branch.search.widget.database;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MediaFileTest {
+
+    @Test
+    public void testToWords() {
+        Assert.assertEquals("my Holiday Photo 2 jpg", MediaFile.toWords("myHolidayPhoto2.jpg"));
+        Assert.assertEquals("IMG 20200101 jpg", MediaFile.toWords("IMG_20200101.jpg"));
+        Assert.assertEquals("report final pdf", MediaFile.toWords("  report -- final.pdf "));
+        Assert.assertEquals("", MediaFile.toWords("._-"));
+    }
+
+    @Test
+    public void testToMatchQuery() {
+        Assert.assertEquals("\"holiday pho*\"", MediaFile.toMatchQuery("holiday pho"));
+        Assert.assertEquals("\"my Holiday*\"", MediaFile.toMatchQuery("myHoliday"));
+        // Quotes are dropped, and operators are plain words inside a phrase.
+        Assert.assertEquals("\"a OR b*\"", MediaFile.toMatchQuery("\"a\" OR-b"));
+        Assert.assertNull(MediaFile.toMatchQuery(" \"* "));
+    }
+}
@@ -0,0 +1,26 @@
+package io.branch.search.widget.generator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SnapshotTest {
+
+    @Test
+    public void testItemsAreCopied() {
+        List<String> items = new ArrayList<>(Arrays.asList("a", "b"));
+        Snapshot<String> snapshot = new Snapshot<>(items, 3);
+        items.add("c");
+        Assert.assertEquals(Arrays.asList("a", "b"), snapshot.getItems());
+        Assert.assertEquals(3, snapshot.getVersion());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testItemsCannotBeModified() {
+        Snapshot<String> snapshot = new Snapshot<>(Arrays.asList("b", "a"), 1);
+        snapshot.getItems().set(0, "c");
+    }
+}
@@ -0,0 +1,68 @@
+package io.branch.search.widget.index;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.branch.search.widget.model.Contact;
+import io.branch.search.widget.util.WordMatcher;
+
+public class ContactsIndexTest {
+
+    private static ContactsIndex createIndex(String... names) {
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            contacts.add(new Contact(i, names[i]));
+        }
+        return new ContactsIndex(contacts, new WordMatcher());
+    }
+
+    private static List<String> names(List<Contact> contacts) {
+        List<String> names = new ArrayList<>();
+        for (Contact contact : contacts) {
+            names.add(contact.getFullName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testKeypadNames() {
+        ContactsIndex index = createIndex("John Smith", "Mary Jones", "Anna Lohm", "Dad");
+        WordIndex<Contact> keypad = index.getKeypadNames();
+        // 5646 is both "john" and "lohm".
+        Assert.assertEquals(Arrays.asList("John Smith", "Anna Lohm"),
+                names(keypad.find("5646", 10)));
+        Assert.assertEquals(Arrays.asList("John Smith", "Mary Jones", "Anna Lohm"),
+                names(keypad.find("5", 10)));
+        Assert.assertEquals(Arrays.asList("John Smith"), names(keypad.find("76484", 10)));
+        Assert.assertEquals(Arrays.asList("Dad"), names(keypad.find("323", 10)));
+        Assert.assertTrue(keypad.find("8", 10).isEmpty());
+        // Built once, by the first call.
+        Assert.assertSame(keypad, index.getKeypadNames());
+    }
+
+    @Test
+    public void testFindByPhoneNumber() {
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            contacts.add(new Contact(i, "Contact " + i));
+        }
+        contacts.get(0).setPhoneNumber("+1 (415) 555-0100");
+        contacts.get(1).setPhoneNumber("415.555.0199");
+        ContactsIndex index = new ContactsIndex(contacts, new WordMatcher());
+        Assert.assertEquals(Arrays.asList("Contact 0", "Contact 1"),
+                names(index.findByPhoneNumber("4155", 10)));
+        Assert.assertEquals(Arrays.asList("Contact 0", "Contact 1"),
+                names(index.findByPhoneNumber("(415) 5", 10)));
+        Assert.assertEquals(Arrays.asList("Contact 0"),
+                names(index.findByPhoneNumber("0100", 10)));
+        Assert.assertEquals(Arrays.asList("Contact 1"),
+                names(index.findByPhoneNumber("5550199", 10)));
+        Assert.assertTrue(index.findByPhoneNumber("41", 10).isEmpty());
+        Assert.assertTrue(index.findByPhoneNumber("415a", 10).isEmpty());
+        Assert.assertTrue(index.findByPhoneNumber("777", 10).isEmpty());
+    }
+}
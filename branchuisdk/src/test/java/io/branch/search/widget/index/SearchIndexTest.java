@@ -0,0 +1,66 @@
+package io.branch.search.widget.index;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import io.branch.search.widget.model.App;
+import io.branch.search.widget.model.Contact;
+import io.branch.search.widget.util.WordMatcher;
+
+public class SearchIndexTest {
+
+    @Test
+    public void testFindByType() {
+        SearchIndex index = new SearchIndex();
+        App whatsApp = new App("com.whatsapp", "WhatsApp");
+        App joom = new App("com.joom", "Joom");
+        index.setApps(SearchIndex.createAppsIndex(Arrays.asList(whatsApp, joom)));
+        Contact john = new Contact(1, "John Smith");
+        Contact mary = new Contact(2, "Mary Applegate");
+        index.setContacts(new ContactsIndex(Arrays.asList(john, mary), new WordMatcher()));
+
+        Assert.assertEquals(Collections.singletonList(joom), index.findApps("jo"));
+        Assert.assertEquals(Collections.singletonList(john), index.findContacts("jo"));
+        Assert.assertTrue(index.findShortcuts("jo").isEmpty());
+
+        // Apps are also split by case, contacts are not.
+        Assert.assertEquals(Collections.singletonList(whatsApp), index.findApps("app"));
+        Assert.assertEquals(Collections.singletonList(mary), index.findContacts("app"));
+
+        // Same query is looked up once.
+        Assert.assertSame(index.findApps("app"), index.findApps("app"));
+    }
+
+    @Test
+    public void testSetAppsInvalidates() {
+        SearchIndex index = new SearchIndex();
+        App maps = new App("com.maps", "Maps");
+        index.setApps(SearchIndex.createAppsIndex(Collections.singletonList(maps)));
+        Assert.assertEquals(Collections.singletonList(maps), index.findApps("ma"));
+
+        App music = new App("com.music", "Music");
+        index.setApps(SearchIndex.createAppsIndex(Collections.singletonList(music)));
+        Assert.assertTrue(index.findApps("ma").isEmpty());
+        Assert.assertEquals(Collections.singletonList(music), index.findApps("mu"));
+        Assert.assertEquals(Collections.singletonList(music),
+                index.findFuzzy("muzic", App.class, 10));
+    }
+
+    @Test
+    public void testFindFuzzyByType() {
+        SearchIndex index = new SearchIndex();
+        App music = new App("com.music", "Music");
+        index.setApps(SearchIndex.createAppsIndex(Collections.singletonList(music)));
+        Contact musa = new Contact(1, "Musica Smith");
+        index.setContacts(new ContactsIndex(Collections.singletonList(musa),
+                new WordMatcher()));
+
+        Assert.assertEquals(Collections.singletonList(music),
+                index.findFuzzy("muzic", App.class, 10));
+        Assert.assertEquals(Collections.singletonList(musa),
+                index.findFuzzy("muzic", Contact.class, 10));
+    }
+}
@@ -0,0 +1,130 @@
+package io.branch.search.widget.index;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.branch.search.widget.util.WordMatcher;
+
+public class WordIndexTest {
+
+    private static final List<String> LABELS = Arrays.asList(
+            "WhatsApp", "John Smith", "Google Maps", "Maps.me", "Johnny Cash", "Mary Jones"
+    );
+
+    private static final WordIndex.LabelProvider<String> LABEL_PROVIDER
+            = new WordIndex.LabelProvider<String>() {
+        @NonNull
+        @Override
+        public WordMatcher.Label getLabel(@NonNull String item, @NonNull WordMatcher matcher) {
+            return matcher.prepare(item);
+        }
+    };
+
+    private static WordIndex<String> createIndex() {
+        return new WordIndex<>(LABELS, new WordMatcher(), LABEL_PROVIDER);
+    }
+
+    @Test
+    public void testFind() {
+        WordIndex<String> index = createIndex();
+        Assert.assertEquals(Arrays.asList("John Smith", "Johnny Cash"), index.find("john", 10));
+        Assert.assertEquals(Arrays.asList("Google Maps", "Maps.me"), index.find("maps", 10));
+        Assert.assertEquals(Collections.singletonList("John Smith"), index.find("jo", 1));
+        Assert.assertEquals(Collections.emptyList(), index.find("ohn", 10));
+    }
+
+    @Test
+    public void testPrefixTable() {
+        WordIndex<String> index = createIndex();
+        // Short queries return the precomputed list.
+        Assert.assertSame(index.findAll("j"), index.findAll("J"));
+        Assert.assertSame(index.findAll("ma"), index.findAll("ma"));
+        Assert.assertEquals(Arrays.asList("John Smith", "Johnny Cash", "Mary Jones"),
+                index.findAll("j"));
+        Assert.assertEquals(Arrays.asList("John Smith", "Johnny Cash"), index.find("j", 2));
+        Assert.assertEquals(Arrays.asList("Google Maps", "Maps.me", "Mary Jones"),
+                index.findAll("ma"));
+        Assert.assertEquals(Collections.emptyList(), index.findAll("xy"));
+
+        WordIndex<String> plain = new WordIndex<>(LABELS, new WordMatcher(),
+                LABEL_PROVIDER, false);
+        Assert.assertEquals(index.findAll("ma"), plain.findAll("ma"));
+        Assert.assertNotSame(plain.findAll("ma"), plain.findAll("ma"));
+    }
+
+    @Test
+    public void testPrefixTableOverflow() {
+        List<String> labels = new ArrayList<>();
+        for (int i = 0; i < 2 * WordIndex.PREFIX_TABLE_CAPACITY; i++) {
+            labels.add("Item " + i);
+        }
+        WordIndex<String> index = new WordIndex<>(labels, new WordMatcher(), LABEL_PROVIDER);
+        // The table only has the first results, the others are searched.
+        Assert.assertEquals(labels.subList(0, 10), index.find("it", 10));
+        Assert.assertEquals(labels, index.find("it", labels.size()));
+        Assert.assertEquals(labels, index.findAll("it"));
+        Assert.assertNotSame(index.findAll("it"), index.findAll("it"));
+    }
+
+    @Test
+    public void testFindTokens() {
+        WordIndex<String> index = createIndex();
+        Assert.assertEquals(Collections.singletonList("John Smith"),
+                index.findTokens("smith john", 10));
+        Assert.assertEquals(Collections.singletonList("John Smith"),
+                index.findTokens("  sm   jo ", 10));
+        Assert.assertEquals(Arrays.asList("John Smith", "Johnny Cash"),
+                index.findTokens("john", 10));
+        Assert.assertEquals(Collections.singletonList("Mary Jones"),
+                index.findTokens("jo ma", 10));
+        Assert.assertEquals(Collections.emptyList(), index.findTokens("john mary", 10));
+        // Each token needs its own word.
+        Assert.assertEquals(Collections.emptyList(), index.findTokens("jo jo", 10));
+        Assert.assertEquals(Collections.emptyList(), index.findTokens("john jo", 10));
+        Assert.assertEquals(Collections.emptyList(), index.findTokens("john xyz", 10));
+        Assert.assertEquals(Collections.emptyList(), index.findTokens("  ", 10));
+    }
+
+    @Test
+    public void testGetTokens() {
+        Assert.assertArrayEquals(new String[] {"smith", "john"},
+                WordIndex.getTokens(" smith\tjohn "));
+        Assert.assertArrayEquals(new String[] {""}, WordIndex.getTokens("  "));
+    }
+
+    @Test
+    public void testFindFuzzy() {
+        WordIndex<String> index = createIndex();
+        // Substitution, transposition, deletion and insertion.
+        Assert.assertEquals(Collections.singletonList("WhatsApp"),
+                index.findFuzzy("whatsapo", 1, 10));
+        Assert.assertEquals(Arrays.asList("John Smith", "Johnny Cash", "Mary Jones"),
+                index.findFuzzy("jhon", 1, 10));
+        Assert.assertEquals(Collections.singletonList("John Smith"),
+                index.findFuzzy("smth", 1, 10));
+        Assert.assertEquals(Arrays.asList("Google Maps", "Maps.me"),
+                index.findFuzzy("mapps", 1, 10));
+        // Exact matches are excluded.
+        Assert.assertEquals(Collections.singletonList("Mary Jones"),
+                index.findFuzzy("john", 1, 10));
+        // Results are sorted by distance.
+        Assert.assertEquals(Arrays.asList("Johnny Cash", "John Smith"),
+                index.findFuzzy("johnyy", 2, 10));
+        Assert.assertEquals(Collections.emptyList(), index.findFuzzy("xyzw", 2, 10));
+        Assert.assertEquals(Collections.emptyList(), index.findFuzzy("jhon", 0, 10));
+    }
+
+    @Test
+    public void testFuzzyDistance() {
+        Assert.assertEquals(0, WordIndex.getFuzzyDistance("jo"));
+        Assert.assertEquals(1, WordIndex.getFuzzyDistance("jhon"));
+        Assert.assertEquals(2, WordIndex.getFuzzyDistance("whatsap"));
+    }
+}
@@ -0,0 +1,33 @@
+package io.branch.search.widget.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AppIconCacheTest {
+
+    @Test
+    public void testFileName() {
+        String name = AppIconCache.getFileName("com.example.app", 1234L);
+        Assert.assertEquals("com.example.app", AppIconCache.getPackageName(name));
+        // Versions of the same package have different files.
+        Assert.assertNotEquals(name, AppIconCache.getFileName("com.example.app", 1235L));
+    }
+
+    @Test
+    public void testFileName_prefixes() {
+        // Underscores and digits are allowed in package names, so they can't
+        // be confused with the version.
+        String name = AppIconCache.getFileName("com.example.app_2", 1234L);
+        Assert.assertEquals("com.example.app_2", AppIconCache.getPackageName(name));
+        Assert.assertNotEquals("com.example.app",
+                AppIconCache.getPackageName(name));
+    }
+
+    @Test
+    public void testPackageName_notAnIcon() {
+        // Leftovers of failed writes.
+        Assert.assertNull(AppIconCache.getPackageName("com.example.app123.tmp"));
+        Assert.assertNull(AppIconCache.getPackageName("@1234.png"));
+        Assert.assertNull(AppIconCache.getPackageName("com.example.app.png"));
+    }
+}
@@ -0,0 +1,107 @@
+package io.branch.search.widget.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class TopAppsTableTest {
+
+    @Test
+    public void testHash() {
+        // Reference FNV-1a 64 values.
+        Assert.assertEquals(0xcbf29ce484222325L, TopAppsTable.hash(""));
+        Assert.assertEquals(0xaf63dc4c8601ec8cL, TopAppsTable.hash("a"));
+        Assert.assertEquals(0x85944171f73967e8L, TopAppsTable.hash("foobar"));
+    }
+
+    @Test
+    public void testChecksum() throws IOException {
+        // Reference CRC32 value, like the compileTopApps task computes.
+        byte[] bytes = "123456789".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(0xcbf43926,
+                TopAppsTable.checksum(new ByteArrayInputStream(bytes), 4096));
+
+        // JSONs of the same length are told apart.
+        byte[] first = "[{\"package_name\":\"com.a\",\"popularity\":1}]"
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] second = "[{\"package_name\":\"com.b\",\"popularity\":1}]"
+                .getBytes(StandardCharsets.UTF_8);
+        Assert.assertNotEquals(TopAppsTable.checksum(new ByteArrayInputStream(first), 4096),
+                TopAppsTable.checksum(new ByteArrayInputStream(second), 4096));
+    }
+
+    @Test
+    public void testChecksumReadsHeadOnly() throws IOException {
+        byte[] bytes = new byte[3 * TopAppsTable.HEAD_BYTES];
+        ByteArrayInputStream stream = new ByteArrayInputStream(bytes);
+        TopAppsTable.checksum(stream, TopAppsTable.HEAD_BYTES);
+        Assert.assertEquals(2 * TopAppsTable.HEAD_BYTES, stream.available());
+        Assert.assertEquals(TopAppsTable.checksum(new ByteArrayInputStream(bytes, 0, 9), 9),
+                TopAppsTable.checksum(new ByteArrayInputStream(bytes), 9));
+    }
+
+    @Test
+    public void testGetPopularity() {
+        Map<String, Integer> popularity = new LinkedHashMap<>();
+        for (int i = 0; i < 500; i++) {
+            popularity.put("com.example.app" + i, i * 10);
+        }
+        TopAppsTable table = TopAppsTable.create(popularity);
+        Assert.assertEquals(500, table.size());
+        for (int i = 0; i < 500; i++) {
+            Assert.assertEquals(i * 10, table.getPopularity("com.example.app" + i));
+        }
+        Assert.assertEquals(-1, table.getPopularity("com.example.app500"));
+        Assert.assertEquals(-1, table.getPopularity(""));
+    }
+
+    @Test
+    public void testEmpty() {
+        TopAppsTable table = TopAppsTable.create(new LinkedHashMap<String, Integer>());
+        Assert.assertEquals(0, table.size());
+        Assert.assertEquals(-1, table.getPopularity("com.whatsapp"));
+    }
+
+    @Test
+    public void testWrapCompiledAsset() throws IOException {
+        // Same layout as the compileTopApps task output.
+        long first = TopAppsTable.hash("com.whatsapp");
+        long second = TopAppsTable.hash("com.facebook.katana");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream stream = new DataOutputStream(bytes);
+        stream.writeInt(TopAppsTable.MAGIC);
+        stream.writeInt(100);
+        stream.writeInt(200);
+        stream.writeInt(2);
+        stream.writeLong(Math.min(first, second));
+        stream.writeInt(first < second ? 738 : 680);
+        stream.writeLong(Math.max(first, second));
+        stream.writeInt(first < second ? 680 : 738);
+        stream.close();
+
+        TopAppsTable table = TopAppsTable.wrap(ByteBuffer.wrap(bytes.toByteArray()));
+        Assert.assertEquals(738, table.getPopularity("com.whatsapp"));
+        Assert.assertEquals(680, table.getPopularity("com.facebook.katana"));
+        Assert.assertEquals(-1, table.getPopularity("com.facebook.orca"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrapInvalidMagic() {
+        TopAppsTable.wrap(ByteBuffer.allocate(16));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrapTruncated() {
+        ByteBuffer buffer = ByteBuffer.allocate(16 + 11);
+        buffer.putInt(TopAppsTable.MAGIC).putInt(0).putInt(0).putInt(1);
+        TopAppsTable.wrap(buffer);
+    }
+}
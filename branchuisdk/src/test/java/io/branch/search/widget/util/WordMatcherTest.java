@@ -0,0 +1,151 @@
+package io.branch.search.widget.util;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+public class WordMatcherTest {
+
+    private static final String[] LABELS = new String[]{
+            "John Smith", "Mary-Jane Watson", "Peter Parker", "", "j", "Jo",
+            "Google Play Store", "YouTube Music", "WhatsApp", "Dr. Who",
+            "  leading spaces", "trailing spaces  ", "\u00C9COLE Fran\u00E7aise"
+    };
+
+    private static final String[] QUERIES = new String[]{
+            "j", "jo", "john", "smith", "mary", "jane", "watson", "par",
+            "play store", "music", "app", "who", "lead", "spaces", "\u00E9co", "fran", "x", ""
+    };
+
+    @Test
+    public void testPreparedMatchesString() {
+        WordMatcher[] matchers = new WordMatcher[]{
+                new WordMatcher(),
+                new WordMatcher(new WordMatcher.NonLowerCaseSplitter()),
+                new WordMatcher(new WordMatcher.SpaceSplitter(),
+                        new WordMatcher.CharSplitter('-'))
+        };
+        for (WordMatcher matcher : matchers) {
+            for (String text : LABELS) {
+                WordMatcher.Label label = matcher.prepare(text);
+                Assert.assertTrue(label.isPreparedBy(matcher));
+                for (String query : QUERIES) {
+                    WordMatcher.Query compiled = matcher.compile(query);
+                    Assert.assertEquals(text + " / " + query,
+                            matcher.matches(text, query),
+                            matcher.matches(label, compiled));
+                    Assert.assertEquals(text + " / " + query,
+                            matcher.matches(text, query),
+                            matcher.matches(text, compiled));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMaskRejectsMissingCharacters() {
+        WordMatcher matcher = new WordMatcher();
+        WordMatcher.Label label = matcher.prepare("YouTube Music");
+        long mask = label.getMask();
+        Assert.assertEquals(mask, mask | matcher.compile("tube").getMask());
+        Assert.assertEquals(mask, mask | matcher.compile("MUSIC").getMask());
+        Assert.assertNotEquals(mask, mask | matcher.compile("musik").getMask());
+        Assert.assertFalse(matcher.matches(label, matcher.compile("musik")));
+        Assert.assertFalse(matcher.matches("YouTube Music", matcher.compile("musik")));
+        Assert.assertTrue(matcher.matches("YouTube Music", matcher.compile("mus")));
+    }
+
+    @Test
+    public void testKeypadMatches() {
+        WordMatcher matcher = new WordMatcher();
+        WordMatcher.Label label = matcher.prepareKeypad("John Smith-Jones");
+        Assert.assertTrue(matcher.matches(label, matcher.compile("5646")));
+        Assert.assertTrue(matcher.matches(label, matcher.compile("76484")));
+        Assert.assertTrue(matcher.matches(label, matcher.compile("5646 7")));
+        Assert.assertFalse(matcher.matches(label, matcher.compile("646")));
+        Assert.assertFalse(matcher.matches(label, matcher.compile("56637")));
+        Assert.assertTrue(WordMatcher.isKeypadQuery("5646"));
+        Assert.assertFalse(WordMatcher.isKeypadQuery("56a"));
+        Assert.assertFalse(WordMatcher.isKeypadQuery(""));
+    }
+
+    @Test
+    public void testEqualsTextAndContainsWord() {
+        WordMatcher matcher = new WordMatcher();
+        WordMatcher.Label label = matcher.prepare("John  Mark Smith");
+        Assert.assertTrue(label.equalsText(matcher.compile("john  mark smith")));
+        Assert.assertFalse(label.equalsText(matcher.compile("john")));
+        Assert.assertTrue(label.containsWord(matcher.compile("john")));
+        Assert.assertTrue(label.containsWord(matcher.compile("MARK")));
+        Assert.assertTrue(label.containsWord(matcher.compile("smith")));
+        Assert.assertFalse(label.containsWord(matcher.compile("smit")));
+        Assert.assertFalse(label.containsWord(matcher.compile("ark")));
+        Assert.assertFalse(label.containsWord(matcher.compile("")));
+    }
+
+    @Test
+    public void testMatchesAll() {
+        WordMatcher matcher = new WordMatcher();
+        WordMatcher.Label label = matcher.prepare("John Jones");
+        Assert.assertTrue(matcher.matchesAll(label, new WordMatcher.Query[] {
+                matcher.compile("jones"), matcher.compile("john")}));
+        // "j" must leave "John" to "john".
+        Assert.assertTrue(matcher.matchesAll(label, new WordMatcher.Query[] {
+                matcher.compile("j"), matcher.compile("john")}));
+        Assert.assertFalse(matcher.matchesAll(label, new WordMatcher.Query[] {
+                matcher.compile("jo"), matcher.compile("jo"), matcher.compile("j")}));
+        Assert.assertFalse(matcher.matchesAll(label, new WordMatcher.Query[] {
+                matcher.compile("john"), matcher.compile("smith")}));
+    }
+
+    @Test
+    public void testPreparedMatchesDoNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        WordMatcher matcher = new WordMatcher(new WordMatcher.NonLowerCaseSplitter());
+        WordMatcher.Label[] labels = new WordMatcher.Label[LABELS.length];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = matcher.prepare(LABELS[i]);
+        }
+        WordMatcher.Query[] queries = new WordMatcher.Query[QUERIES.length];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = matcher.compile(QUERIES[i]);
+        }
+
+        // Warm up, so that the JIT does not pollute the measurement.
+        int rounds = 2000;
+        int count = match(matcher, labels, queries, rounds);
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        count += match(matcher, labels, queries, rounds);
+        long after = threads.getThreadAllocatedBytes(thread);
+
+        int candidates = rounds * labels.length * queries.length;
+        Assert.assertTrue(count > 0);
+        Assert.assertTrue("Allocated " + (after - before) + " bytes for "
+                + candidates + " candidates.", after - before < candidates);
+    }
+
+    private static int match(WordMatcher matcher,
+                             WordMatcher.Label[] labels,
+                             WordMatcher.Query[] queries,
+                             int rounds) {
+        int count = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (WordMatcher.Query query : queries) {
+                for (WordMatcher.Label label : labels) {
+                    if (matcher.matches(label, query)) count++;
+                }
+            }
+        }
+        return count;
+    }
+}